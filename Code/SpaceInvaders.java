@@ -2,8 +2,9 @@
 import javax.swing.*; // For GUI components (JPanel, JFrame, Timer)
 import java.awt.*; // For graphics and drawing (Color, Graphics, Font)
 import java.awt.event.*; // For event handling (ActionListener, KeyListener)
-import java.util.ArrayList; // For dynamic arrays to store game objects
-import java.util.Iterator; // For safe removal of objects during iteration
+import java.awt.image.BufferStrategy; // For page flipping in active rendering mode
+import java.awt.image.BufferedImage; // For pre-rendered sprite images
+import java.awt.image.DataBufferInt; // For writing particle pixels directly
 import java.util.Random; // For generating random numbers
 
 // Main game class that extends JPanel for drawing and implements listeners for game loop and input
@@ -17,6 +18,68 @@ public class SpaceInvaders extends JPanel implements ActionListener, KeyListener
     private static final int BULLET_SIZE = 6; // Size of player bullets
     private static final int BOSS_WIDTH = 100; // Width of boss enemy
     private static final int BOSS_HEIGHT = 60; // Height of boss enemy
+    private static final int CELL_SIZE = 64; // Size of one collision grid cell (bigger than an invader)
+    
+    // Entity kinds - what an entity is, used by the game rules (scoring, shooting, waves)
+    static final int INVADER = 0; // Regular alien
+    static final int BOSS = 1; // Boss alien
+    static final int PLAYER_SHOT = 2; // Laser fired by the player
+    static final int ENEMY_SHOT = 3; // Bullet dropped by a regular invader
+    static final int BOSS_SHOT = 4; // Fireball dropped by the boss
+    static final int KIND_COUNT = 5;
+    
+    // Collision layers - player lasers hit LAYER_ENEMY, hostile shots hit the player
+    static final int LAYER_NONE = 0; // Scenery, never collides
+    static final int LAYER_ENEMY = 1; // Can be shot by the player
+    static final int LAYER_PLAYER_SHOT = 2; // Damages LAYER_ENEMY
+    static final int LAYER_HOSTILE_SHOT = 3; // Damages the player
+    
+    // Edge behaviours - what the movement system does at the screen border
+    static final int EDGE_BOUNCE_DESCEND = 0; // Reverse and drop down a row (invaders)
+    static final int EDGE_BOUNCE = 1; // Reverse only (boss)
+    static final int EDGE_CULL = 2; // Removed once off screen (bullets)
+    
+    // Render tags - which picture the render system draws for an entity
+    static final int SPRITE_ALIEN = 0; // Alien image (variant = row color)
+    static final int SPRITE_BOSS = 1; // Boss image
+    static final int SPRITE_LASER = 2; // Player laser (variant 1 = powerful)
+    static final int SPRITE_ENEMY_BULLET = 3; // Red oval
+    static final int SPRITE_FIREBALL = 4; // Boss fireball
+    
+    // Default components for each kind, indexed by kind - shots are points (0 x 0 colliders)
+    private static final int[] KIND_WIDTH = {INVADER_SIZE, BOSS_WIDTH, 0, 0, 0};
+    private static final int[] KIND_HEIGHT = {INVADER_SIZE, BOSS_HEIGHT, 0, 0, 0};
+    private static final int[] KIND_LAYER = {LAYER_ENEMY, LAYER_ENEMY, LAYER_PLAYER_SHOT, LAYER_HOSTILE_SHOT, LAYER_HOSTILE_SHOT};
+    private static final int[] KIND_EDGE = {EDGE_BOUNCE_DESCEND, EDGE_BOUNCE, EDGE_CULL, EDGE_CULL, EDGE_CULL};
+    private static final int[] KIND_SPRITE = {SPRITE_ALIEN, SPRITE_BOSS, SPRITE_LASER, SPRITE_ENEMY_BULLET, SPRITE_FIREBALL};
+    
+    // One game update happens every tick - all game timing counts ticks, not the wall clock,
+    // so the same seed and the same inputs always play out the same way
+    private static final int TICK_MILLIS = 16; // Length of one tick (~60 updates per second)
+    
+    // Input bits for one tick (what was held down while the tick ran)
+    static final int INPUT_LEFT = 1; // Left arrow
+    static final int INPUT_RIGHT = 2; // Right arrow
+    static final int INPUT_FIRE = 4; // Space bar
+    static final int INPUT_RESTART = 8; // R pressed on the game over screen
+    static final int KEY_RELEASED = 16; // Added to an input bit in the key queue when the key goes up
+    static final int PLAYER2_SHIFT = 4; // Player 2's input bits sit above player 1's in co-op
+    
+    // Shared drawing resources - created once instead of on every paint
+    private static final Color BACKGROUND_COLOR = new Color(10, 10, 40); // Dark blue background
+    private static final Color OVERLAY_COLOR = new Color(0, 0, 0, 180); // Semi-transparent black for game over
+    private static final Color[] ROW_COLORS = { // Different colors for each row of invaders
+        new Color(0, 200, 0),    // Green
+        new Color(200, 0, 200),  // Magenta  
+        new Color(0, 200, 200),  // Cyan
+        new Color(200, 200, 0)   // Yellow
+    };
+    private static final Font LABEL_FONT = new Font("Arial", Font.BOLD, 16); // Boss shot counter
+    private static final Font HUD_FONT = new Font("Arial", Font.BOLD, 20); // Score, lives, wave
+    private static final Font BOSS_FONT = new Font("Arial", Font.BOLD, 28); // Boss battle warning
+    private static final Font TITLE_FONT = new Font("Arial", Font.BOLD, 48); // Game over title
+    private static final Font INFO_FONT = new Font("Arial", Font.BOLD, 24); // Game over details
+    private static final Font STATS_FONT = new Font("Monospaced", Font.PLAIN, 12); // Frame timing overlay
     
     // Game state variables
     private Timer timer; // Game timer that triggers the game loop
@@ -27,6 +90,15 @@ public class SpaceInvaders extends JPanel implements ActionListener, KeyListener
     private int playerX = WIDTH / 2 - PLAYER_WIDTH / 2; // Player's X position (centered)
     private int playerY = HEIGHT - 100; // Player's Y position (near bottom)
     private int playerSpeed = 10; // How fast the player moves left/right
+    private int prevPlayerX = playerX; // Player's X position one tick earlier (for interpolation)
+    private float alpha = 1f; // How far the frame being drawn is between the previous and current tick (0..1)
+    
+    // Co-op - a second ship sharing lives, score and lasers, steered by input bits above PLAYER2_SHIFT
+    boolean coop = false; // Whether player 2 is in the game
+    private int player2X = 0; // Player 2's X position
+    private int prevPlayer2X = 0; // Player 2's X position one tick earlier (for interpolation)
+    private boolean canShoot2 = true; // Whether player 2 can currently shoot
+    private long lastShotTick2 = 0; // Tick when player 2 last fired
     
     // Game statistics
     private int score = 0; // Player's current score
@@ -37,8 +109,9 @@ public class SpaceInvaders extends JPanel implements ActionListener, KeyListener
     
     // Shooting control variables
     private boolean canShoot = true; // Whether player can currently shoot
-    private long lastShotTime = 0; // Time when last shot was fired
+    private long lastShotTick = 0; // Tick when last shot was fired
     private final long SHOT_DELAY = 200; // Delay between shots in milliseconds
+    private final long SHOT_DELAY_TICKS = SHOT_DELAY / TICK_MILLIS; // Same delay counted in ticks
     private int MAX_BULLETS = 3; // Maximum number of bullets allowed on screen (will increase)
     
     // Weapon upgrade system
@@ -46,86 +119,121 @@ public class SpaceInvaders extends JPanel implements ActionListener, KeyListener
     private boolean powerfulRounds = false; // Whether bullets are more powerful
     
     // Enemy shooting control
-    private long lastEnemyShotTime = 0; // Time when last enemy shot was fired
     private final long ENEMY_SHOT_DELAY = 2000; // 2 seconds between enemy shots
+    private final long ENEMY_SHOT_DELAY_TICKS = ENEMY_SHOT_DELAY / TICK_MILLIS; // Same delay counted in ticks
+    private long lastEnemyShotTick = -ENEMY_SHOT_DELAY_TICKS - 1; // Tick when last enemy shot was fired (first shot is immediate)
+    private long tick = 0; // Number of game updates since the game started
     
     // Extra life system variables
     private int lastExtraLifeScore = 0; // Score at which last extra life was given
     private final int EXTRA_LIFE_INTERVAL = 2000; // Points needed for each extra life
     
-    // Keyboard input states (for smooth movement)
-    private boolean leftPressed = false; // Whether left arrow key is pressed
-    private boolean rightPressed = false; // Whether right arrow key is pressed
-    private boolean spacePressed = false; // Whether space bar is pressed
+    // Keyboard input - key events are queued by the event thread and applied by the game at the start of each tick
+    final InputQueue keys = new InputQueue(1024); // Timestamped key events not yet seen by the game
+    private int heldInput = 0; // Input bits of keys currently held down
+    private int tappedInput = 0; // Input bits pressed during the tick being built (kept even if already released)
     
-    // Collections to store game objects
-    private ArrayList<Invader> invaders; // List of all alien invaders
-    private ArrayList<Bullet> bullets; // List of player's bullets
-    private ArrayList<BossBullet> bossBullets; // List of boss's bullets
-    private ArrayList<EnemyBullet> enemyBullets; // List of enemy bullets
-    private Boss boss; // The boss enemy (null when no boss)
+    // Every game object except the player is an entity in the world
+    final World world = new World(256); // Invaders, the boss and all bullets
+    private SpatialGrid enemyGrid = new SpatialGrid(); // Broad phase grid used to find enemies near a laser
+    private int[] laserHits = new int[256]; // Per entity: first grid entry its laser overlaps, or -1
+    private final java.util.function.IntConsumer findHitsTask = slice ->
+        findHits(world.pool.sliceStart(world.count, slice), world.pool.sliceStart(world.count, slice + 1));
+    Particles particles = new Particles(Particles.DEFAULT_BUDGET); // Explosions, sparks and engine trails (cosmetic)
     
-    // Random number generator and background elements
-    private Random random = new Random(); // For random number generation
-    private ArrayList<Star> stars = new ArrayList<>(); // List of background stars
+    // Random number generator
+    private long seed; // Seed the random generator started from
+    private GameRandom random; // For random number generation
     
     // Animation control variables
     private boolean alienAntennaUp = false; // State of alien antenna animation
     private int animationCounter = 0; // Counter for timing animations
     
-    // Constructor - sets up the game
+    // Snapshots - F5 saves the whole game to snapshotPath, F9 loads it back (done by the game thread)
+    static final int SNAPSHOT_MAGIC = 0x53495353; // "SISS" - marks a Space Invaders snapshot
+    static final int SNAPSHOT_VERSION = 3; // 2 added co-op and entity ids, 3 dropped star entities
+    static final int SNAPSHOT_FIXED_BYTES = 123; // Header and game fields
+    static final int SNAPSHOT_ENTITY_BYTES = 42; // Each entity
+    String snapshotPath = "spaceinvaders.sav"; // Quick save file
+    private volatile int snapshotRequest = 0; // KeyEvent.VK_F5 or VK_F9 waiting for the next tick, 0 = none
+    
+    // HUD layer - drawn into hudImage only when something it shows changes, then copied every frame
+    private static final int HUD_HEIGHT = 160; // Top band holding all the HUD text
+    private static final int MAX_LIFE_ICONS = 5; // Life icons drawn before the rest is shown as a number
+    private BufferedImage hudImage; // Made on first draw (headless games never need one)
+    private final int[] hudShown = new int[8]; // Values hudImage currently shows
+    // Parts of the HUD that are repainted and copied separately, so a shot counter ticking every
+    // frame doesn't redraw the score - {x, y, width, height}
+    private static final int[][] HUD_REGIONS = {
+        {0, 0, WIDTH / 2 - 100, 110}, // Score, lives and life icons
+        {WIDTH / 2 - 100, 0, 240, HUD_HEIGHT}, // Next life, weapon level and warnings
+        {WIDTH - 130, 0, 130, 70} // Wave and shots
+    };
+    private BufferedImage statsImage; // Frame timing overlay, redrawn once a second while visible
+    private String[] statsShown; // Overlay lines statsImage currently shows
+    
+    // Performance instrumentation
+    final FrameStats stats = new FrameStats(); // Frame timing histograms
+    private volatile boolean showStats = false; // Whether the timing overlay is visible (toggle with F3)
+    
+    // Stress mode for scaling tests - 0 means normal play
+    private int stressInvaders = 0; // Invaders in every stress wave
+    private int stressShots = 0; // Player lasers kept in flight at all times
+    private static final int MAX_STRESS_COUNT = 100_000; // Upper limit for both counts
+    private static final int STRESS_LIVES = 1_000_000; // Stress runs shouldn't end in game over
+    
+    // Replay recording - every tick's input is logged when this is set
+    InputLog recording = null;
+    
+    // Co-op client connection - when set, a server runs the game and this one only shows it
+    NetClient net = null;
+    
+    // Constructor - sets up the game driven by a Swing timer
     public SpaceInvaders() {
+        this(true, System.nanoTime());
+    }
+    
+    // Constructor - useTimer is false when something else (like GameCanvas or a replay) runs the game loop,
+    // seed fixes every random choice the game makes
+    public SpaceInvaders(boolean useTimer, long seed) {
+        this.seed = seed;
+        this.random = new GameRandom(seed);
         setPreferredSize(new Dimension(WIDTH, HEIGHT)); // Set panel size
-        setBackground(new Color(10, 10, 40)); // Set dark blue background color
+        setBackground(BACKGROUND_COLOR); // Set dark blue background color
         setFocusable(true); // Allow panel to receive keyboard focus
         addKeyListener(this); // Register this class to handle keyboard events
         
-        initializeStars(); // Create background stars
-        invaders = new ArrayList<>(); // Initialize empty list for invaders
-        bullets = new ArrayList<>(); // Initialize empty list for bullets
-        bossBullets = new ArrayList<>(); // Initialize empty list for boss bullets
-        enemyBullets = new ArrayList<>(); // Initialize empty list for enemy bullets
-        
         createInvaders(); // Create the first wave of invaders
         
-        timer = new Timer(16, this); // Create timer that triggers every 16ms (~60fps)
-        timer.start(); // Start the game timer
-    }
-    
-    // Initialize background stars with random positions and speeds
-    private void initializeStars() {
-        stars.clear(); // Remove any existing stars
-        for (int i = 0; i < 30; i++) { // Create 30 stars
-            stars.add(new Star( // Add new star to the list
-                random.nextInt(WIDTH), // Random X position across screen width
-                random.nextInt(HEIGHT), // Random Y position across screen height
-                random.nextInt(2) + 1, // Random speed (1 or 2 pixels per frame)
-                random.nextInt(3) + 1 // Random size (1, 2, or 3 pixels)
-            ));
+        if (useTimer) {
+            timer = new Timer(16, this); // Create timer that triggers every 16ms (~60fps)
+            timer.start(); // Start the game timer
         }
     }
     
     // Create a new wave of alien invaders
     private void createInvaders() {
-        invaders.clear(); // Remove any existing invaders
+        world.killKind(INVADER); // Remove any existing invaders
         
         // Calculate base health - increases by 1 each wave, minimum 1
         int baseHealth = Math.max(1, wave);
         
-        // Limit total enemies to 20
-        int maxEnemies = 20;
+        // Limit total enemies to 20 (stress mode replaces the cap with its own count)
+        int maxEnemies = stressInvaders > 0 ? stressInvaders : 20;
         int rows = Math.min(4, 2 + (wave / 2)); // Max 4 rows
         int cols = Math.min(5, 6); // Max 5 columns to keep under 20
         
         postBossMode = (wave > 4); // Enable tougher enemies after wave 4
         
-        // Different colors for each row of invaders
-        Color[] rowColors = {
-            new Color(0, 200, 0),    // Green
-            new Color(200, 0, 200),  // Magenta  
-            new Color(0, 200, 200),  // Cyan
-            new Color(200, 200, 0)   // Yellow
-        };
+        if (stressInvaders > 0) { // Stress waves scatter invaders over the top of the screen, overlapping freely
+            for (int i = 0; i < maxEnemies; i++) {
+                int x = random.nextInt(WIDTH - INVADER_SIZE); // Random X position
+                int y = 40 + random.nextInt(playerY - 240); // Random Y position well above the player
+                int health = postBossMode ? baseHealth + 1 : baseHealth; // Extra health after boss levels
+                spawnInvader(x, y, 1 + (wave / 3), i % ROW_COLORS.length, health);
+            }
+            rows = 0; // Skip the normal grid below
+        }
         
         // Create grid of invaders (limited to maxEnemies)
         int enemyCount = 0;
@@ -134,9 +242,9 @@ public class SpaceInvaders extends JPanel implements ActionListener, KeyListener
                 int x = 150 + col * (INVADER_SIZE + 30); // Calculate X position with spacing
                 int y = 80 + row * (INVADER_SIZE + 30); // Calculate Y position with spacing
                 int speed = 1 + (wave / 3); // Speed increases with waves
-                Color color = rowColors[row % rowColors.length]; // Cycle through colors
+                int colorIndex = row % ROW_COLORS.length; // Cycle through colors
                 int health = postBossMode ? baseHealth + 1 : baseHealth; // Extra health after boss levels
-                invaders.add(new Invader(x, y, speed, color, health)); // Add new invader
+                spawnInvader(x, y, speed, colorIndex, health); // Add new invader
                 enemyCount++;
             }
         }
@@ -149,210 +257,309 @@ public class SpaceInvaders extends JPanel implements ActionListener, KeyListener
         powerfulRounds = (wave >= 5);
     }
     
+    // Add one invader moving right at the given speed
+    private void spawnInvader(int x, int y, int speed, int colorIndex, int health) {
+        int invader = world.spawn(INVADER, x, y, speed, 0);
+        world.health[invader] = health; // Number of hits required to destroy
+        world.variant[invader] = colorIndex; // Row color
+    }
+    
+    // Add player 2 (before the first tick)
+    void startCoop() {
+        coop = true;
+        placePlayers();
+    }
+    
+    // Put the ships at their starting spots - centered alone, a third of the way in from each side in co-op
+    private void placePlayers() {
+        if (coop) {
+            playerX = WIDTH / 3 - PLAYER_WIDTH / 2;
+            player2X = WIDTH * 2 / 3 - PLAYER_WIDTH / 2;
+        } else {
+            playerX = WIDTH / 2 - PLAYER_WIDTH / 2; // Reset player position to center
+        }
+        prevPlayerX = playerX; // Jump there rather than sliding across
+        prevPlayer2X = player2X;
+    }
+    
+    // Switch to stress mode - every wave gets invaderCount invaders and shotCount lasers stay in flight
+    void startStress(int invaderCount, int shotCount) {
+        stressInvaders = Math.max(1, Math.min(MAX_STRESS_COUNT, invaderCount));
+        stressShots = Math.max(0, Math.min(MAX_STRESS_COUNT, shotCount));
+        lives = STRESS_LIVES; // Keep going no matter what hits the player
+        createInvaders(); // Replace the current wave
+    }
+    
+    // Move and collide big worlds on this many threads (1, the default, keeps everything on the game thread)
+    void useThreads(int threads) {
+        if (world.pool != null) {
+            world.pool.close();
+        }
+        world.usePool(threads > 1 ? new WorkerPool(threads, "World worker") : null);
+    }
+    
     // Create a boss enemy
     private void createBoss() {
-        boss = new Boss(WIDTH / 2 - BOSS_WIDTH / 2, 80, 3); // Create boss centered at top
+        int boss = world.spawn(BOSS, WIDTH / 2 - BOSS_WIDTH / 2, 80, 3, 0); // Create boss centered at top
+        world.health[boss] = 10; // Requires 10 hits
         bossLevel = true; // Set boss level flag
     }
     
-    // Main game update method - called every frame by timer
-    private void updateGame() {
+    // Main game update method - applies every key event from before tickTime, then runs one tick
+    void updateGame(long tickTime) {
+        if (snapshotRequest != 0) { // Quick save / load between ticks, never halfway through one
+            quickSnapshot(snapshotRequest);
+            snapshotRequest = 0;
+        }
+        int event;
+        while ((event = keys.poll(tickTime)) >= 0) { // Key events in the order they happened
+            int bit = event & ~KEY_RELEASED;
+            if ((event & KEY_RELEASED) != 0) {
+                heldInput &= ~bit; // Key went up
+            } else {
+                tappedInput |= bit; // A tap shorter than a tick still counts for this tick
+                if (bit != INPUT_RESTART) { // Restart is a one-off, never held
+                    heldInput |= bit;
+                }
+            }
+        }
+        int input = heldInput | tappedInput;
+        tappedInput = 0;
+        if (net != null) { // Co-op client - send the keys, show what the server says
+            try {
+                net.tick(this, input);
+            } catch (java.io.IOException e) {
+                System.err.println("Lost the co-op server: " + e.getMessage());
+                net = null;
+                gameOver = true;
+            }
+            return;
+        }
+        step(input);
+    }
+    
+    // Advance the game by one tick with the given input bits - the only way game state changes
+    void step(int input) {
+        if (recording != null) { // Log input before anything else so replays see the same ticks
+            recording.record(input);
+        }
+        if ((input & INPUT_RESTART) != 0 && gameOver) { // If game over and R pressed
+            restartGame(); // Restart the game
+        }
+        world.savePositions(); // Where everything was before this tick - the renderer blends from here
+        prevPlayerX = playerX;
+        prevPlayer2X = player2X;
         if (!gameRunning || gameOver) return; // Skip update if game not running
-        
-        updateStars(); // Update background star positions
+        long updateStart = System.nanoTime(); // Start timing this update
+        tick++; // Count this update
         
         animationCounter++; // Increment animation counter
         if (animationCounter % 30 == 0) { // Every 30 frames (about twice per second)
             alienAntennaUp = !alienAntennaUp; // Toggle alien antenna state
         }
         
-        handleContinuousInput(); // Process continuous keyboard input
-        handleContinuousShooting(); // Process continuous shooting
-        
-        for (Invader invader : invaders) { // Update each invader
-            invader.move(); // Move the invader
+        handleContinuousInput(input); // Process continuous keyboard input
+        handleContinuousShooting(input); // Process continuous shooting
+        if (coop) {
+            handlePlayer2(input >>> PLAYER2_SHIFT);
         }
+        particles.update(); // Move and age every particle
+        particles.trail(playerX + PLAYER_WIDTH / 2, playerY + PLAYER_HEIGHT + 10); // Engine exhaust
+        if (coop) {
+            particles.trail(player2X + PLAYER_WIDTH / 2, playerY + PLAYER_HEIGHT + 10);
+        }
+        
+        world.move(true, false); // Invaders and the boss move first, so they shoot from where they are now
         
         // Enemies shoot back with delay - only one enemy can shoot every 2 seconds
-        long currentTime = System.currentTimeMillis();
-        if (!invaders.isEmpty() && currentTime - lastEnemyShotTime > ENEMY_SHOT_DELAY) {
+        int invaderCount = world.count(INVADER);
+        if (invaderCount > 0 && tick - lastEnemyShotTick > ENEMY_SHOT_DELAY_TICKS) {
             // Pick a random enemy to shoot
-            Invader shooter = invaders.get(random.nextInt(invaders.size()));
-            enemyBullets.add(new EnemyBullet(
-                shooter.x + INVADER_SIZE / 2, 
-                shooter.y + INVADER_SIZE,
-                random.nextInt(3) + 2 + wave / 5 // Speed increases with waves
-            ));
-            lastEnemyShotTime = currentTime; // Update last shot time
-        }
-        
-        if (bossLevel && boss != null) { // If in boss level and boss exists
-            boss.move(); // Move the boss
-            
-            // Boss shoots with max 3 bullets on screen
-            if (random.nextInt(100) < 2 && bossBullets.size() < 3) { // 2% chance each frame to shoot, max 3 bullets
-                bossBullets.add(new BossBullet(boss.x + BOSS_WIDTH / 2, boss.y + BOSS_HEIGHT));
-            }
+            int shooter = world.nth(INVADER, random.nextInt(invaderCount));
+            world.spawn(ENEMY_SHOT,
+                world.x[shooter] + INVADER_SIZE / 2, 
+                world.y[shooter] + INVADER_SIZE,
+                0, random.nextInt(3) + 2 + wave / 5 // Speed increases with waves
+            );
+            lastEnemyShotTick = tick; // Update last shot time
         }
         
-        // Update player bullets and remove off-screen ones
-        Iterator<Bullet> bulletIter = bullets.iterator();
-        while (bulletIter.hasNext()) {
-            Bullet bullet = bulletIter.next();
-            bullet.move(); // Move bullet upward
-            if (bullet.y < 0) { // If bullet goes off top of screen
-                bulletIter.remove(); // Remove the bullet
-            }
+        // Stress mode keeps the screen full of lasers fired from random spots below the invaders
+        while (world.count(PLAYER_SHOT) < stressShots) {
+            int laser = world.spawn(PLAYER_SHOT, random.nextInt(WIDTH), random.nextInt(playerY), 0, -10);
+            world.variant[laser] = powerfulRounds ? 1 : 0;
         }
         
-        // Update boss bullets and remove off-screen ones
-        Iterator<BossBullet> bossBulletIter = bossBullets.iterator();
-        while (bossBulletIter.hasNext()) {
-            BossBullet bullet = bossBulletIter.next();
-            bullet.move(); // Move bullet downward
-            if (bullet.y > HEIGHT) { // If bullet goes off bottom of screen
-                bossBulletIter.remove(); // Remove the bullet
+        int boss = world.first(BOSS);
+        if (bossLevel && boss >= 0) { // If in boss level and boss exists
+            // Boss shoots with max 3 bullets on screen
+            if (random.nextInt(100) < 2 && world.count(BOSS_SHOT) < 3) { // 2% chance each frame to shoot, max 3 bullets
+                world.spawn(BOSS_SHOT, world.x[boss] + BOSS_WIDTH / 2, world.y[boss] + BOSS_HEIGHT, 0, 6);
             }
         }
         
-        // Update enemy bullets and remove off-screen ones
-        Iterator<EnemyBullet> enemyBulletIter = enemyBullets.iterator();
-        while (enemyBulletIter.hasNext()) {
-            EnemyBullet bullet = enemyBulletIter.next();
-            bullet.move(); // Move bullet downward
-            if (bullet.y > HEIGHT) { // If bullet goes off bottom of screen
-                enemyBulletIter.remove(); // Remove the bullet
-            }
-        }
+        world.move(false, true); // Then every bullet, new ones included, and drop those that left the screen
         
+        long collisionStart = System.nanoTime();
         checkCollisions(); // Check for collisions between objects
+        stats.record(FrameStats.COLLISION, System.nanoTime() - collisionStart);
+        world.compact(); // Squeeze out everything destroyed this tick
         checkWaveCompletion(); // Check if current wave is complete
         checkExtraLife(); // Check if player earned extra life
-    }
-    
-    // Update star positions for parallax background effect
-    private void updateStars() {
-        for (Star star : stars) { // For each star
-            star.y += star.speed; // Move star downward
-            if (star.y > HEIGHT) { // If star moves off bottom of screen
-                star.y = 0; // Reset to top of screen
-                star.x = random.nextInt(WIDTH); // Random X position
-            }
-        }
+        stats.record(FrameStats.UPDATE, System.nanoTime() - updateStart);
     }
     
     // Handle continuous keyboard input for smooth movement
-    private void handleContinuousInput() {
-        if (leftPressed && playerX > 0) { // If left pressed and not at left edge
+    private void handleContinuousInput(int input) {
+        if ((input & INPUT_LEFT) != 0 && playerX > 0) { // If left pressed and not at left edge
             playerX -= playerSpeed; // Move player left
         }
-        if (rightPressed && playerX < WIDTH - PLAYER_WIDTH) { // If right pressed and not at right edge
+        if ((input & INPUT_RIGHT) != 0 && playerX < WIDTH - PLAYER_WIDTH) { // If right pressed and not at right edge
             playerX += playerSpeed; // Move player right
         }
     }
     
     // Handle continuous shooting with delay between shots
-    private void handleContinuousShooting() {
-        if (spacePressed && canShoot) { // If space pressed and can shoot
-            shoot(); // Fire a bullet
+    private void handleContinuousShooting(int input) {
+        if ((input & INPUT_FIRE) != 0 && canShoot) { // If space pressed and can shoot
+            shoot(playerX); // Fire a bullet
             canShoot = false; // Prevent immediate follow-up shot
-            lastShotTime = System.currentTimeMillis(); // Record shot time
+            lastShotTick = tick; // Record shot time
         }
         
         // Check if enough time has passed to shoot again
-        if (!canShoot && System.currentTimeMillis() - lastShotTime > SHOT_DELAY) {
+        if (!canShoot && tick - lastShotTick > SHOT_DELAY_TICKS) {
             canShoot = true; // Allow shooting again
         }
     }
     
-    // Check for collisions between game objects
+    // Move and fire player 2's ship - same rules as player 1, own shot timer
+    private void handlePlayer2(int input) {
+        if ((input & INPUT_LEFT) != 0 && player2X > 0) {
+            player2X -= playerSpeed;
+        }
+        if ((input & INPUT_RIGHT) != 0 && player2X < WIDTH - PLAYER_WIDTH) {
+            player2X += playerSpeed;
+        }
+        if ((input & INPUT_FIRE) != 0 && canShoot2) {
+            shoot(player2X);
+            canShoot2 = false;
+            lastShotTick2 = tick;
+        }
+        if (!canShoot2 && tick - lastShotTick2 > SHOT_DELAY_TICKS) {
+            canShoot2 = true;
+        }
+    }
+    
+    // Collision system - lasers against enemies through the grid, then hostile shots and enemies against the player
     private void checkCollisions() {
-        // Check player bullets against invaders and boss
-        Iterator<Bullet> bulletIter = bullets.iterator();
-        while (bulletIter.hasNext()) {
-            Bullet bullet = bulletIter.next();
-            
-            if (bossLevel && boss != null) { // Check collision with boss
-                if (bullet.x >= boss.x && bullet.x <= boss.x + BOSS_WIDTH &&
-                    bullet.y >= boss.y && bullet.y <= boss.y + BOSS_HEIGHT) {
-                    boss.health--; // Reduce boss health
-                    bulletIter.remove(); // Remove bullet
-                    score += 50; // Add points for hitting boss
-                    
-                    if (boss.health <= 0) { // If boss defeated
-                        boss = null; // Remove boss
-                        bossLevel = false; // Exit boss level
-                        wave++; // Advance to next wave
-                        score += 500; // Bonus points for defeating boss
-                        postBossMode = true; // Enable tougher enemies
-                        createInvaders(); // Create new wave
-                    }
-                    continue; // Skip to next bullet
-                }
-            }
-            
-            // Check collision with regular invaders
-            Iterator<Invader> invaderIter = invaders.iterator();
-            while (invaderIter.hasNext()) {
-                Invader invader = invaderIter.next();
-                if (bullet.x >= invader.x && bullet.x <= invader.x + INVADER_SIZE &&
-                    bullet.y >= invader.y && bullet.y <= invader.y + INVADER_SIZE) {
-                    
-                    // Powerful rounds do double damage after wave 5
-                    int damage = powerfulRounds ? 2 : 1;
-                    invader.health -= damage;
-                    bulletIter.remove(); // Remove bullet
-                    
-                    if (invader.health <= 0) { // If invader destroyed
-                        invaderIter.remove(); // Remove invader
-                        score += postBossMode ? 20 : 10; // More points for tough enemies
-                    }
-                    break; // Stop checking this bullet
-                }
-            }
+        enemyGrid.build(world); // Sort enemies into grid cells so each laser only tests its neighbours
+        
+        // Find each laser's first overlapping enemy before anything dies - read-only, so a big
+        // world does it in slices on the pool
+        int lasers = world.count; // A hit can start a new wave, but new entities are never lasers
+        if (laserHits.length < lasers) {
+            laserHits = new int[Math.max(lasers, laserHits.length * 2)];
+        }
+        if (world.parallel()) {
+            world.pool.run(findHitsTask);
+        } else {
+            findHits(0, lasers);
         }
         
-        // Check boss bullets against player
-        Iterator<BossBullet> bossBulletIter = bossBullets.iterator();
-        while (bossBulletIter.hasNext()) {
-            BossBullet bullet = bossBulletIter.next();
-            if (bullet.x >= playerX && bullet.x <= playerX + PLAYER_WIDTH &&
-                bullet.y >= playerY && bullet.y <= playerY + PLAYER_HEIGHT) {
-                bossBulletIter.remove(); // Remove boss bullet
-                loseLife(); // Player loses a life
-                break; // Stop checking
+        // Apply the hits in laser order on this thread. If an earlier laser already destroyed the
+        // target, carry on down the cell from there - the same enemy a one-pass check would find
+        for (int i = 0; i < lasers; i++) {
+            if (laserHits[i] < 0) continue;
+            int end = enemyGrid.end(enemyGrid.cellAt(world.x[i], world.y[i]));
+            for (int k = laserHits[i]; k < end; k++) {
+                int target = enemyGrid.item(k); // Candidates come out in creation order
+                if (!world.dead[target] && world.overlaps(i, target)) { // Skip enemies already destroyed this tick
+                    world.kill(i); // Remove laser
+                    enemyHit(target);
+                    break; // Stop checking this laser
+                }
             }
         }
         
-        // Check enemy bullets against player
-        Iterator<EnemyBullet> enemyBulletIter = enemyBullets.iterator();
-        while (enemyBulletIter.hasNext()) {
-            EnemyBullet bullet = enemyBulletIter.next();
-            if (bullet.x >= playerX && bullet.x <= playerX + PLAYER_WIDTH &&
-                bullet.y >= playerY && bullet.y <= playerY + PLAYER_HEIGHT) {
-                enemyBulletIter.remove(); // Remove enemy bullet
+        // Check boss and enemy bullets against player
+        for (int i = 0; i < world.count; i++) {
+            if (!world.dead[i] && world.layer[i] == LAYER_HOSTILE_SHOT &&
+                (world.overlaps(i, playerX, playerY, PLAYER_WIDTH, PLAYER_HEIGHT) ||
+                 coop && world.overlaps(i, player2X, playerY, PLAYER_WIDTH, PLAYER_HEIGHT))) {
+                world.kill(i); // Remove the bullet that hit
                 loseLife(); // Player loses a life
                 break; // Stop checking
             }
         }
         
-        // Check if invaders reached the bottom (player loses life)
-        Iterator<Invader> invaderIter = invaders.iterator();
-        while (invaderIter.hasNext()) {
-            Invader invader = invaderIter.next();
-            if (invader.y + INVADER_SIZE >= playerY) { // If invader reaches player level
+        // Check if enemies reached the bottom (player loses life)
+        for (int i = 0; i < world.count; i++) {
+            if (!world.dead[i] && world.layer[i] == LAYER_ENEMY && world.y[i] + world.height[i] >= playerY) {
+                particles.burst(world.x[i] + world.width[i] / 2f, world.y[i] + world.height[i] / 2f, 120, 4f, Particles.FIRE, 45);
                 loseLife(); // Player loses a life
-                invaderIter.remove(); // Remove the invader
+                world.kill(i); // Remove the invader
                 break; // Only one invader causes damage per frame
             }
         }
     }
     
+    // Collision broad phase for entities from up to (not including) to: the grid entry of the first
+    // enemy each live player laser overlaps, or -1 for misses and anything that isn't a laser
+    private void findHits(int from, int to) {
+        for (int i = from; i < to; i++) {
+            laserHits[i] = -1;
+            if (world.dead[i] || world.layer[i] != LAYER_PLAYER_SHOT) continue; // Only live player lasers
+            int cell = enemyGrid.cellAt(world.x[i], world.y[i]);
+            for (int k = enemyGrid.start(cell); k < enemyGrid.end(cell); k++) {
+                int target = enemyGrid.item(k);
+                if (!world.dead[target] && world.overlaps(i, target)) {
+                    laserHits[i] = k;
+                    break;
+                }
+            }
+        }
+    }
+    
+    // A player laser hit an enemy - apply damage and scoring for its kind
+    private void enemyHit(int target) {
+        switch (world.kind[target]) {
+            case BOSS:
+                world.health[target]--; // Reduce boss health
+                score += 50; // Add points for hitting boss
+                float bossX = world.x[target] + BOSS_WIDTH / 2f, bossY = world.y[target] + BOSS_HEIGHT / 2f;
+                particles.burst(bossX, world.y[target] + BOSS_HEIGHT, 24, 3f, Particles.SPARK, 20); // Sparks where it was hit
+                if (world.health[target] <= 0) { // If boss defeated
+                    particles.burst(bossX, bossY, 1500, 7f, Particles.FIRE, 90); // Big explosion
+                    world.kill(target); // Remove boss
+                    bossLevel = false; // Exit boss level
+                    wave++; // Advance to next wave
+                    score += 500; // Bonus points for defeating boss
+                    postBossMode = true; // Enable tougher enemies
+                    createInvaders(); // Create new wave
+                }
+                break;
+            default: // Regular invader
+                // Powerful rounds do double damage after wave 5
+                int damage = powerfulRounds ? 2 : 1;
+                world.health[target] -= damage;
+                float invaderX = world.x[target] + INVADER_SIZE / 2f, invaderY = world.y[target] + INVADER_SIZE / 2f;
+                if (world.health[target] <= 0) { // If invader destroyed
+                    particles.burst(invaderX, invaderY, 120, 4f, world.variant[target], 45); // Explode in the row color
+                    world.kill(target); // Remove invader
+                    score += postBossMode ? 20 : 10; // More points for tough enemies
+                } else {
+                    particles.burst(invaderX, world.y[target] + INVADER_SIZE, 10, 2.5f, Particles.SPARK, 15); // Hit sparks
+                }
+                break;
+        }
+    }
+    
     // Check if current wave is complete and advance to next wave
     private void checkWaveCompletion() {
-        if (!bossLevel && invaders.isEmpty()) { // If no boss and all invaders destroyed
+        if (!bossLevel && world.count(INVADER) == 0) { // If no boss and all invaders destroyed
             wave++; // Advance to next wave
-            if (wave == 4 || wave == 9) { // Check if this is a boss wave
+            if ((wave == 4 || wave == 9) && stressInvaders == 0) { // Check if this is a boss wave (never in stress mode)
                 createBoss(); // Create boss for waves 4 and 9
             } else {
                 createInvaders(); // Create regular wave
@@ -370,21 +577,26 @@ public class SpaceInvaders extends JPanel implements ActionListener, KeyListener
     
     // Player loses a life
     private void loseLife() {
+        particles.burst(playerX + PLAYER_WIDTH / 2f, playerY + PLAYER_HEIGHT / 2f, 400, 5f, Particles.PLAYER, 60); // Ship explodes
+        if (coop) {
+            particles.burst(player2X + PLAYER_WIDTH / 2f, playerY + PLAYER_HEIGHT / 2f, 400, 5f, Particles.PLAYER2, 60);
+        }
         lives--; // Decrease life count
         if (lives <= 0) { // If no lives left
             gameOver = true; // Game over
         }
         
-        playerX = WIDTH / 2 - PLAYER_WIDTH / 2; // Reset player position to center
-        bullets.clear(); // Clear all player bullets
-        bossBullets.clear(); // Clear all boss bullets
-        enemyBullets.clear(); // Clear all enemy bullets
+        placePlayers(); // Back to the starting spots
+        world.killKind(PLAYER_SHOT); // Clear all bullets
+        world.killKind(ENEMY_SHOT);
+        world.killKind(BOSS_SHOT);
     }
     
-    // Create a new player bullet
-    public void shoot() {
-        if (bullets.size() < MAX_BULLETS) { // Only shoot if fewer than max bullets
-            bullets.add(new Bullet(playerX + PLAYER_WIDTH / 2 - BULLET_SIZE / 2, playerY, powerfulRounds));
+    // Create a new player bullet from the ship at shipX
+    public void shoot(int shipX) {
+        if (world.count(PLAYER_SHOT) < MAX_BULLETS * (coop ? 2 : 1)) { // Only shoot if fewer than max bullets (each)
+            int laser = world.spawn(PLAYER_SHOT, shipX + PLAYER_WIDTH / 2 - BULLET_SIZE / 2, playerY, 0, -10);
+            world.variant[laser] = powerfulRounds ? 1 : 0; // Powerful lasers look different
         }
     }
     
@@ -392,191 +604,157 @@ public class SpaceInvaders extends JPanel implements ActionListener, KeyListener
     @Override
     protected void paintComponent(Graphics g) {
         super.paintComponent(g); // Call parent method to clear background
-        
-        drawStars(g); // Draw background stars
-        drawPlayerShip(g); // Draw player ship
-        
-        for (Invader invader : invaders) { // Draw each invader
-            drawAlienEmojiSprite(g, invader.x, invader.y, invader.color, invader.health);
-        }
-        
-        drawBullets(g); // Draw player bullets
-        drawEnemyBullets(g); // Draw enemy bullets
-        
-        if (bossLevel && boss != null) { // If boss exists
-            drawBossSprite(g); // Draw boss
-            drawBossBullets(g); // Draw boss bullets
+        render(g); // Draw the current frame
+    }
+    
+    // Draw one whole frame of the current tick on top of the background
+    void render(Graphics g) {
+        render(g, 1f);
+    }
+    
+    // Draw one whole frame on top of the background - shared by the panel and GameCanvas.
+    // alpha blends every position from the previous tick (0) to the current one (1), so a display
+    // refreshing faster than the 16ms tick sees smooth motion without extra simulation
+    void render(Graphics g, float alpha) {
+        this.alpha = alpha;
+        long renderStart = System.nanoTime(); // Start timing this frame's drawing
+        SpriteAtlas sprites = SpriteAtlas.get(); // Pre-rendered images for every sprite
+        
+        Starfield.get().draw(g, tick, alpha); // Scrolling background (covers the whole frame)
+        drawPlayerShip(g, sprites); // Draw player ship
+        drawSprites(g, sprites, SPRITE_ALIEN); // Draw each invader
+        drawSprites(g, sprites, SPRITE_LASER); // Draw player bullets
+        drawSprites(g, sprites, SPRITE_ENEMY_BULLET); // Draw enemy bullets
+        
+        int boss = world.first(BOSS);
+        if (bossLevel && boss >= 0) { // If boss exists
+            drawSprites(g, sprites, SPRITE_BOSS); // Draw boss
+            drawSprites(g, sprites, SPRITE_FIREBALL); // Draw boss bullets
             
             // Draw boss bullet counter
             g.setColor(Color.WHITE);
-            g.setFont(new Font("Arial", Font.BOLD, 16));
-            g.drawString("Boss Shots: " + bossBullets.size() + "/3", boss.x, boss.y - 25);
+            g.setFont(LABEL_FONT);
+            g.drawString("Boss Shots: " + world.count(BOSS_SHOT) + "/3", Math.round(world.renderX(boss, alpha)), Math.round(world.renderY(boss, alpha)) - 25);
         }
         
-        drawHUD(g); // Draw score, lives, etc.
+        particles.draw(g, alpha); // All particles in one image
+        drawHUD(g, sprites); // Draw score, lives, etc.
         
         if (gameOver) { // If game over
             drawGameOverScreen(g); // Draw game over screen
         }
-    }
-    
-    // Draw background stars
-    private void drawStars(Graphics g) {
-        g.setColor(Color.WHITE); // Set star color to white
-        for (Star star : stars) { // Draw each star
-            g.fillRect(star.x, star.y, star.size, star.size); // Draw star as small square
-        }
-    }
-    
-    // Draw player ship as a triangle with details
-    private void drawPlayerShip(Graphics g) {
-        // Define triangle points for ship body
-        int[] xPoints = {
-            playerX + PLAYER_WIDTH / 2,        // Nose tip (center top)
-            playerX + 15,                      // Left bottom corner
-            playerX + PLAYER_WIDTH - 15        // Right bottom corner
-        };
-        int[] yPoints = {
-            playerY + 5,                       // Nose Y position
-            playerY + PLAYER_HEIGHT - 5,       // Left bottom Y
-            playerY + PLAYER_HEIGHT - 5        // Right bottom Y
-        };
-        
-        g.setColor(new Color(0, 255, 255)); // Set ship color to cyan
-        g.fillPolygon(xPoints, yPoints, 3); // Draw filled triangle
         
-        g.setColor(new Color(0, 150, 255)); // Set cockpit color to blue
-        g.fillOval(playerX + PLAYER_WIDTH / 2 - 8, playerY, 16, 12); // Draw cockpit dome
-        
-        g.setColor(new Color(0, 200, 255)); // Set wing color
-        g.fillRect(playerX + 5, playerY + PLAYER_HEIGHT - 12, PLAYER_WIDTH - 10, 8); // Draw wings
-        
-        // Create gradient for engine glow
-        GradientPaint engineGlow = new GradientPaint(
-            playerX + PLAYER_WIDTH / 2 - 4, playerY + PLAYER_HEIGHT, // Start position
-            Color.YELLOW, // Start color
-            playerX + PLAYER_WIDTH / 2 - 4, playerY + PLAYER_HEIGHT + 10, // End position  
-            Color.ORANGE // End color
-        );
-        ((Graphics2D) g).setPaint(engineGlow); // Apply gradient
-        g.fillRect(playerX + PLAYER_WIDTH / 2 - 4, playerY + PLAYER_HEIGHT, 8, 10); // Draw engine
+        long renderEnd = System.nanoTime();
+        stats.record(FrameStats.RENDER, renderEnd - renderStart);
+        int projectiles = world.count(PLAYER_SHOT) + world.count(ENEMY_SHOT) + world.count(BOSS_SHOT);
+        stats.frameDrawn(renderEnd, world.count(INVADER), projectiles); // Frame interval and overlay numbers
     }
     
-    // Draw alien invader in emoji style
-    private void drawAlienEmojiSprite(Graphics g, int x, int y, Color color, int health) {
-        g.setColor(color); // Set alien body color
-        g.fillOval(x + 5, y + 8, INVADER_SIZE - 10, INVADER_SIZE - 16); // Draw main body
-        
-        g.setColor(color.brighter()); // Set brighter color for head
-        g.fillOval(x + 8, y + 2, INVADER_SIZE - 16, 12); // Draw head dome
-        
-        g.setColor(Color.BLACK); // Set eye color to black
-        g.fillOval(x + 10, y + 10, 8, 10); // Draw left eye
-        g.fillOval(x + INVADER_SIZE - 18, y + 10, 8, 10); // Draw right eye
-        
-        g.setColor(Color.WHITE); // Set highlight color
-        g.fillOval(x + 12, y + 12, 3, 4); // Draw left eye highlight
-        g.fillOval(x + INVADER_SIZE - 16, y + 12, 3, 4); // Draw right eye highlight
-        
-        g.setColor(Color.BLACK); // Set mouth color
-        g.fillRect(x + 15, y + 25, INVADER_SIZE - 30, 2); // Draw mouth line
-        
-        g.setColor(color); // Set antenna color
-        if (alienAntennaUp) { // If antenna should be up
-            g.fillOval(x + INVADER_SIZE / 2 - 2, y - 3, 4, 6); // Draw antenna
-        }
-        
-        // Draw health bar for enemies with more than 1 health
-        if (health > 1) {
-            g.setColor(Color.RED); // Set health bar background color
-            g.fillRect(x, y - 5, INVADER_SIZE, 3); // Draw full health bar background
-            g.setColor(Color.GREEN); // Set health bar color
-            int healthWidth = (INVADER_SIZE * health) / 10; // Calculate current health width
-            g.fillRect(x, y - 5, healthWidth, 3); // Draw current health
-        }
-    }
-    
-    // Draw player bullets as laser beams
-    private void drawBullets(Graphics g) {
-        for (Bullet bullet : bullets) { // For each bullet
-            // Use different colors for powerful rounds
-            if (bullet.powerful) {
-                // Create gradient for powerful laser effect
-                GradientPaint laserGlow = new GradientPaint(
-                    bullet.x, bullet.y, Color.YELLOW, // Top color (yellow)
-                    bullet.x, bullet.y + BULLET_SIZE * 4, Color.RED // Bottom color (red)
-                );
-                ((Graphics2D) g).setPaint(laserGlow); // Apply gradient
-                g.fillRect(bullet.x - 1, bullet.y, BULLET_SIZE + 2, BULLET_SIZE * 4); // Draw larger laser
-            } else {
-                // Create gradient for regular laser effect
-                GradientPaint laserGlow = new GradientPaint(
-                    bullet.x, bullet.y, Color.CYAN, // Top color (cyan)
-                    bullet.x, bullet.y + BULLET_SIZE * 3, Color.BLUE // Bottom color (blue)
-                );
-                ((Graphics2D) g).setPaint(laserGlow); // Apply gradient
-                g.fillRect(bullet.x, bullet.y, BULLET_SIZE, BULLET_SIZE * 3); // Draw laser beam
+    // Render system - draws every live entity with the given render tag (one layer of the picture)
+    private void drawSprites(Graphics g, SpriteAtlas sprites, int tag) {
+        for (int i = 0; i < world.count; i++) {
+            if (world.sprite[i] != tag || world.dead[i]) continue; // Only this layer
+            int x = Math.round(world.renderX(i, alpha)), y = Math.round(world.renderY(i, alpha)); // Snap to whole pixels to keep sprites crisp
+            switch (tag) {
+                case SPRITE_ALIEN:
+                    g.drawImage(sprites.alien(world.variant[i], world.health[i], alienAntennaUp), x, y - SpriteAtlas.ALIEN_TOP, null);
+                    break;
+                case SPRITE_BOSS:
+                    g.drawImage(sprites.boss(world.health[i]), x, y - SpriteAtlas.BOSS_TOP, null); // Boss with its health bar
+                    break;
+                case SPRITE_LASER: // Use different colors for powerful rounds
+                    if (world.variant[i] == 1) {
+                        g.drawImage(sprites.powerfulLaser, x - 1, y, null); // Draw larger laser
+                    } else {
+                        g.drawImage(sprites.laser, x, y, null); // Draw laser beam
+                    }
+                    break;
+                case SPRITE_ENEMY_BULLET:
+                    g.drawImage(sprites.enemyBullet, x - 3, y, null); // Draw enemy bullet as oval
+                    break;
+                case SPRITE_FIREBALL:
+                    g.drawImage(sprites.fireball, x - 4, y, null); // Draw fireball
+                    break;
             }
         }
     }
     
-    // Draw enemy bullets
-    private void drawEnemyBullets(Graphics g) {
-        g.setColor(Color.RED); // Set enemy bullet color to red
-        for (EnemyBullet bullet : enemyBullets) { // For each enemy bullet
-            g.fillOval(bullet.x - 3, bullet.y, 6, 10); // Draw enemy bullet as oval
+    // Draw player ship from its cached image
+    private void drawPlayerShip(Graphics g, SpriteAtlas sprites) {
+        int x = Math.round(prevPlayerX + (playerX - prevPlayerX) * alpha); // Blend between ticks
+        g.drawImage(sprites.playerShip, x, playerY, null);
+        if (coop) {
+            g.drawImage(sprites.player2Ship, Math.round(prevPlayer2X + (player2X - prevPlayer2X) * alpha), playerY, null);
         }
     }
     
-    // Draw boss enemy
-    private void drawBossSprite(Graphics g) {
-        g.setColor(new Color(180, 0, 180)); // Set boss color to purple
-        g.fillOval(boss.x + 10, boss.y + 15, BOSS_WIDTH - 20, BOSS_HEIGHT - 20); // Draw body
-        
-        g.setColor(new Color(200, 50, 200)); // Set head color
-        g.fillOval(boss.x + 20, boss.y + 5, BOSS_WIDTH - 40, 20); // Draw head
-        
-        g.setColor(Color.BLACK); // Set eye color
-        g.fillOval(boss.x + 25, boss.y + 20, 15, 20); // Draw left eye
-        g.fillOval(boss.x + BOSS_WIDTH - 40, boss.y + 20, 15, 20); // Draw right eye
-        
-        g.setColor(Color.WHITE); // Set eye highlight color
-        g.fillOval(boss.x + 28, boss.y + 23, 6, 8); // Draw left eye highlight
-        g.fillOval(boss.x + BOSS_WIDTH - 37, boss.y + 23, 6, 8); // Draw right eye highlight
-        
-        g.setColor(Color.BLACK); // Set mouth color
-        g.fillRect(boss.x + 35, boss.y + 45, BOSS_WIDTH - 70, 4); // Draw mouth
+    // Draw Heads-Up Display (score, lives, wave info) - repainted into its cached image only when a value changed
+    private void drawHUD(Graphics g, SpriteAtlas sprites) {
+        boolean all = hudImage == null;
+        if (all) {
+            hudImage = new BufferedImage(WIDTH, HUD_HEIGHT, BufferedImage.TYPE_INT_ARGB_PRE);
+        }
+        // Non-short-circuit | so every changed value gets remembered
+        boolean[] dirty = {
+            all | hudChanged(0, score) | hudChanged(1, lives),
+            all | hudChanged(5, lastExtraLifeScore) | hudChanged(6, weaponLevel)
+                | hudChanged(7, (postBossMode ? 1 : 0) | (powerfulRounds ? 2 : 0) | (bossLevel ? 4 : 0)),
+            all | hudChanged(2, wave) | hudChanged(3, world.count(PLAYER_SHOT)) | hudChanged(4, MAX_BULLETS)
+        };
+        for (int r = 0; r < HUD_REGIONS.length; r++) {
+            int[] region = HUD_REGIONS[r];
+            if (dirty[r]) {
+                Graphics2D hud = hudImage.createGraphics();
+                hud.clipRect(region[0], region[1], region[2], region[3]); // Leaves the other regions alone
+                hud.setComposite(AlphaComposite.Clear); // Wipe to transparent
+                hud.fillRect(region[0], region[1], region[2], region[3]);
+                hud.setComposite(AlphaComposite.SrcOver);
+                paintHUD(hud, sprites);
+                hud.dispose();
+            }
+            int x2 = region[0] + region[2], y2 = region[1] + region[3];
+            g.drawImage(hudImage, region[0], region[1], x2, y2, region[0], region[1], x2, y2, null);
+        }
         
-        // Draw boss health bar
-        g.setColor(Color.RED); // Set health bar background color
-        g.fillRect(boss.x, boss.y - 15, BOSS_WIDTH, 8); // Draw full health bar
-        g.setColor(Color.GREEN); // Set health bar color
-        int healthWidth = (BOSS_WIDTH * boss.health) / 10; // Calculate current health width
-        g.fillRect(boss.x, boss.y - 15, healthWidth, 8); // Draw current health
-        g.setColor(Color.WHITE); // Set border color
-        g.drawRect(boss.x, boss.y - 15, BOSS_WIDTH, 8); // Draw health bar border
+        if (showStats) { // Frame timing overlay in the bottom-left corner
+            String[] lines = stats.overlayLines(); // Refreshed once per second
+            int height = lines.length * 14 + 15; // Room for the first line's ascent
+            if (lines != statsShown || statsImage == null || statsImage.getHeight() != height) {
+                statsImage = statsImage != null && statsImage.getHeight() == height ? statsImage
+                    : new BufferedImage(WIDTH / 2, height, BufferedImage.TYPE_INT_ARGB_PRE);
+                Graphics2D overlay = statsImage.createGraphics();
+                overlay.setComposite(AlphaComposite.Clear);
+                overlay.fillRect(0, 0, WIDTH / 2, height);
+                overlay.setComposite(AlphaComposite.SrcOver);
+                overlay.setColor(Color.WHITE);
+                overlay.setFont(STATS_FONT);
+                for (int i = 0; i < lines.length; i++) {
+                    overlay.drawString(lines[i], 10, height - 15 - (lines.length - 1 - i) * 14);
+                }
+                overlay.dispose();
+                statsShown = lines;
+            }
+            g.drawImage(statsImage, 0, HEIGHT - height, null);
+        }
     }
     
-    // Draw boss bullets as fireballs
-    private void drawBossBullets(Graphics g) {
-        g.setColor(Color.ORANGE); // Set outer fireball color
-        for (BossBullet bullet : bossBullets) { // For each boss bullet
-            g.fillOval(bullet.x - 4, bullet.y, 8, 8); // Draw outer fireball
-            g.setColor(Color.YELLOW); // Set inner fireball color
-            g.fillOval(bullet.x - 2, bullet.y + 2, 4, 4); // Draw inner fireball
-        }
+    // Remember a HUD value - true if it differs from what the cached HUD shows
+    private boolean hudChanged(int slot, int value) {
+        if (hudShown[slot] == value) return false;
+        hudShown[slot] = value;
+        return true;
     }
     
-    // Draw Heads-Up Display (score, lives, wave info)
-    private void drawHUD(Graphics g) {
+    // Paint the HUD text and icons (into the cached HUD image)
+    private void paintHUD(Graphics g, SpriteAtlas sprites) {
         g.setColor(Color.WHITE); // Set text color to white
-        g.setFont(new Font("Arial", Font.BOLD, 20)); // Set font
+        g.setFont(HUD_FONT); // Set font
         g.drawString("Score: " + score, 20, 30); // Draw score at top-left
         g.drawString("Lives: " + lives, 20, 60); // Draw lives below score
         g.drawString("Wave: " + wave, WIDTH - 120, 30); // Draw wave at top-right
         
         g.setColor(Color.CYAN); // Set bullet counter color
-        g.drawString("Shots: " + bullets.size() + "/" + MAX_BULLETS, WIDTH - 120, 60); // Draw bullet count
+        g.drawString("Shots: " + world.count(PLAYER_SHOT) + "/" + MAX_BULLETS, WIDTH - 120, 60); // Draw bullet count
         
         int nextExtraLifeAt = lastExtraLifeScore + EXTRA_LIFE_INTERVAL; // Calculate next life threshold
         g.setColor(Color.YELLOW); // Set extra life indicator color
@@ -596,36 +774,32 @@ public class SpaceInvaders extends JPanel implements ActionListener, KeyListener
             g.drawString("POWER SHOTS!", WIDTH / 2 - 70, 150); // Draw power-up indicator
         }
         
-        for (int i = 0; i < lives; i++) { // Draw life icons
-            drawLifeIcon(g, 20 + i * 25, 80); // Draw small ship for each life
+        for (int i = 0; i < Math.min(lives, MAX_LIFE_ICONS); i++) { // Draw life icons
+            g.drawImage(sprites.lifeIcon, 20 + i * 25, 80, null); // Draw small ship for each life
+        }
+        if (lives > MAX_LIFE_ICONS) { // The rest as a number - stress mode has a million
+            g.setColor(Color.WHITE);
+            g.drawString("+" + (lives - MAX_LIFE_ICONS), 25 + MAX_LIFE_ICONS * 25, 92);
         }
         
         if (bossLevel) { // If in boss level
             g.setColor(Color.RED); // Set boss warning color
-            g.setFont(new Font("Arial", Font.BOLD, 28)); // Larger font for boss
+            g.setFont(BOSS_FONT); // Larger font for boss
             g.drawString("BOSS BATTLE!", WIDTH / 2 - 90, 60); // Draw boss warning
         }
     }
     
-    // Draw small life icon (mini ship)
-    private void drawLifeIcon(Graphics g, int x, int y) {
-        g.setColor(Color.CYAN); // Set ship color
-        int[] lifeXPoints = {x + 4, x, x + 8}; // Triangle points X
-        int[] lifeYPoints = {y, y + 6, y + 6}; // Triangle points Y
-        g.fillPolygon(lifeXPoints, lifeYPoints, 3); // Draw small triangle ship
-    }
-    
     // Draw game over screen overlay
     private void drawGameOverScreen(Graphics g) {
-        g.setColor(new Color(0, 0, 0, 180)); // Set semi-transparent black overlay
+        g.setColor(OVERLAY_COLOR); // Set semi-transparent black overlay
         g.fillRect(0, 0, WIDTH, HEIGHT); // Cover entire screen
         
         g.setColor(Color.RED); // Set game over text color
-        g.setFont(new Font("Arial", Font.BOLD, 48)); // Large font for game over
+        g.setFont(TITLE_FONT); // Large font for game over
         g.drawString("GAME OVER", WIDTH / 2 - 140, HEIGHT / 2 - 50); // Draw game over text
         
         g.setColor(Color.WHITE); // Set info text color
-        g.setFont(new Font("Arial", Font.BOLD, 24)); // Smaller font for info
+        g.setFont(INFO_FONT); // Smaller font for info
         g.drawString("Final Score: " + score, WIDTH / 2 - 100, HEIGHT / 2 + 20); // Draw final score
         g.drawString("Reached Wave: " + wave, WIDTH / 2 - 100, HEIGHT / 2 + 50); // Draw wave reached
         g.drawString("Press R to Restart", WIDTH / 2 - 100, HEIGHT / 2 + 90); // Draw restart instructions
@@ -634,50 +808,47 @@ public class SpaceInvaders extends JPanel implements ActionListener, KeyListener
     // Timer event handler - called every frame
     @Override
     public void actionPerformed(ActionEvent e) {
-        updateGame(); // Update game logic
+        updateGame(System.nanoTime()); // Update game logic with every key event so far
         repaint(); // Request screen redraw
     }
     
-    // Key pressed event handler
+    // Key pressed event handler - runs on the event thread, so it only queues the key for the game
     @Override
     public void keyPressed(KeyEvent e) {
         int key = e.getKeyCode(); // Get which key was pressed
         
-        if (gameOver && key == KeyEvent.VK_R) { // If game over and R pressed
-            restartGame(); // Restart the game
-            return; // Exit early
+        if (key == KeyEvent.VK_F3) { // F3 toggles the frame timing overlay
+            showStats = !showStats;
+            return;
+        }
+        if (key == KeyEvent.VK_F5 || key == KeyEvent.VK_F9) { // Quick save / quick load on the next tick
+            snapshotRequest = key;
+            return;
         }
         
-        if (!gameRunning || gameOver) return; // Ignore input if game not running
-        
-        switch (key) { // Handle different keys
-            case KeyEvent.VK_LEFT: // Left arrow
-                leftPressed = true; // Set left movement flag
-                break;
-            case KeyEvent.VK_RIGHT: // Right arrow
-                rightPressed = true; // Set right movement flag
-                break;
-            case KeyEvent.VK_SPACE: // Space bar
-                spacePressed = true; // Set shooting flag
-                break;
+        int bit = inputBit(key);
+        if (bit != 0) {
+            keys.offer(System.nanoTime(), bit); // Stamped now, applied by the tick it falls in
         }
     }
     
     // Key released event handler
     @Override
     public void keyReleased(KeyEvent e) {
-        int key = e.getKeyCode(); // Get which key was released
-        
+        int bit = inputBit(e.getKeyCode());
+        if (bit != 0 && bit != INPUT_RESTART) {
+            keys.offer(System.nanoTime(), bit | KEY_RELEASED);
+        }
+    }
+    
+    // Input bit for a key, or 0 if the game doesn't use it
+    private static int inputBit(int key) {
         switch (key) { // Handle different keys
-            case KeyEvent.VK_LEFT: // Left arrow
-                leftPressed = false; // Clear left movement flag
-                break;
-            case KeyEvent.VK_RIGHT: // Right arrow
-                rightPressed = false; // Clear right movement flag
-                break;
-            case KeyEvent.VK_SPACE: // Space bar
-                spacePressed = false; // Clear shooting flag
-                break;
+            case KeyEvent.VK_LEFT: return INPUT_LEFT; // Left arrow
+            case KeyEvent.VK_RIGHT: return INPUT_RIGHT; // Right arrow
+            case KeyEvent.VK_SPACE: return INPUT_FIRE; // Space bar
+            case KeyEvent.VK_R: return INPUT_RESTART; // Restart (only acted on when the game is over)
+            default: return 0;
         }
     }
     
@@ -688,7 +859,7 @@ public class SpaceInvaders extends JPanel implements ActionListener, KeyListener
     // Reset game to initial state
     private void restartGame() {
         score = 0; // Reset score to zero
-        lives = 3; // Reset lives to three
+        lives = stressInvaders > 0 ? STRESS_LIVES : 3; // Reset lives to three
         wave = 1; // Reset to first wave
         gameOver = false; // Clear game over flag
         bossLevel = false; // Clear boss level flag
@@ -696,139 +867,2698 @@ public class SpaceInvaders extends JPanel implements ActionListener, KeyListener
         powerfulRounds = false; // Clear powerful rounds flag
         weaponLevel = 1; // Reset weapon level
         MAX_BULLETS = 3; // Reset max bullets
-        leftPressed = false; // Clear left key flag
-        rightPressed = false; // Clear right key flag
-        spacePressed = false; // Clear space key flag
+        heldInput = 0; // Forget keys held before the restart
+        if (coop) {
+            placePlayers(); // Both ships back to their own side
+            canShoot2 = true;
+        }
         canShoot = true; // Allow shooting
-        lastEnemyShotTime = 0; // Reset enemy shot timer
+        tick = 0; // Restart the tick count
+        lastEnemyShotTick = -ENEMY_SHOT_DELAY_TICKS - 1; // Reset enemy shot timer
         lastExtraLifeScore = 0; // Reset extra life tracking
-        bullets.clear(); // Clear all bullets
-        bossBullets.clear(); // Clear all boss bullets
-        enemyBullets.clear(); // Clear all enemy bullets
-        initializeStars(); // Reset background stars
+        world.clear(); // Clear all bullets, invaders and the boss
         createInvaders(); // Create first wave
-        requestFocusInWindow(); // Ensure keyboard focus
+        if (isShowing()) { // Headless games (replays, training) have no focus to take
+            requestFocusInWindow(); // Ensure keyboard focus
+        }
     }
     
-    // Inner class representing a background star
-    class Star {
-        int x, y, speed, size; // Position, movement speed, and size
-        
-        Star(int x, int y, int speed, int size) {
-            this.x = x; // X coordinate
-            this.y = y; // Y coordinate  
-            this.speed = speed; // Pixels to move each frame
-            this.size = size; // Width and height of star
+    // Start a brand new game from another seed - lets one instance play many episodes
+    void reseed(long newSeed) {
+        seed = newSeed;
+        random.setSeed(newSeed);
+        playerX = WIDTH / 2 - PLAYER_WIDTH / 2; // Back to the center
+        prevPlayerX = playerX;
+        lastShotTick = 0;
+        alienAntennaUp = false;
+        animationCounter = 0;
+        restartGame(); // Everything else, in the same order as a fresh game
+    }
+    
+    // Fingerprint of the game state - two runs are identical if their hashes match tick for tick
+    long stateHash() {
+        long h = seed;
+        h = h * 31 + tick;
+        h = h * 31 + score;
+        h = h * 31 + lives;
+        h = h * 31 + wave;
+        h = h * 31 + playerX;
+        h = h * 31 + (gameOver ? 1 : 0);
+        if (coop) {
+            h = h * 31 + player2X;
         }
+        for (int i = 0; i < world.count; i++) {
+            if (world.dead[i]) continue;
+            h = (((h * 31 + world.kind[i]) * 31 + world.x[i]) * 31 + world.y[i]) * 31 + world.health[i];
+        }
+        return h;
     }
     
-    // Inner class representing an alien invader
-    class Invader {
-        int x, y, speed, direction = 1, health; // Position, speed, movement direction, health
-        Color color; // Color of the invader
-        
-        Invader(int x, int y, int speed, Color color, int health) {
-            this.x = x; // X position
-            this.y = y; // Y position
-            this.speed = speed; // Movement speed
-            this.color = color; // Color
-            this.health = health; // Number of hits required to destroy
+    // Bytes needed to snapshot the current state (enough for any buffer passed to saveSnapshot now)
+    int snapshotSize() {
+        return SNAPSHOT_FIXED_BYTES + world.count * SNAPSHOT_ENTITY_BYTES;
+    }
+    
+    // Write the entire game state at the buffer's position - fields, every entity and the RNG state
+    void saveSnapshot(java.nio.ByteBuffer out) {
+        out.putInt(SNAPSHOT_MAGIC).put((byte) SNAPSHOT_VERSION);
+        out.putLong(seed).putLong(random.state()).putLong(tick).putLong(lastShotTick).putLong(lastEnemyShotTick);
+        out.putInt(playerX).putInt(prevPlayerX).putInt(score).putInt(lives).putInt(wave);
+        out.putInt(MAX_BULLETS).putInt(weaponLevel).putInt(lastExtraLifeScore).putInt(animationCounter);
+        out.putInt(heldInput).putInt(tappedInput).putInt(stressInvaders).putInt(stressShots);
+        out.putInt(player2X).putInt(prevPlayer2X).putLong(lastShotTick2).putInt(world.nextId);
+        out.putShort((short) ((gameRunning ? 1 : 0) | (gameOver ? 2 : 0) | (bossLevel ? 4 : 0) | (postBossMode ? 8 : 0)
+            | (canShoot ? 16 : 0) | (powerfulRounds ? 32 : 0) | (alienAntennaUp ? 64 : 0)
+            | (coop ? 128 : 0) | (canShoot2 ? 256 : 0)));
+        int live = 0;
+        for (int i = 0; i < world.count; i++) {
+            if (!world.dead[i]) live++;
         }
-        
-        // Move the invader horizontally, changing direction at screen edges
-        void move() {
-            x += speed * direction; // Move in current direction
-            
-            if (x <= 0 || x >= WIDTH - INVADER_SIZE) { // If hit left or right edge
-                direction *= -1; // Reverse direction
-                y += 35; // Move down one row
+        out.putInt(live);
+        for (int i = 0; i < world.count; i++) { // Layer, edge and sprite come back from the kind tables
+            if (world.dead[i]) continue;
+            out.put((byte) world.kind[i]).put((byte) world.variant[i]).putInt(world.id[i]);
+            out.putInt(world.x[i]).putInt(world.y[i]).putInt(world.prevX[i]).putInt(world.prevY[i]);
+            out.putInt(world.vx[i]).putInt(world.vy[i]).putInt(world.health[i]);
+            out.putInt(world.width[i]).putInt(world.height[i]);
+        }
+    }
+    
+    // Replace the entire game state with a snapshot read from the buffer's position
+    void loadSnapshot(java.nio.ByteBuffer in) {
+        if (in.getInt() != SNAPSHOT_MAGIC || in.get() != SNAPSHOT_VERSION) {
+            throw new IllegalArgumentException("Not a Space Invaders snapshot");
+        }
+        seed = in.getLong();
+        random.setState(in.getLong());
+        tick = in.getLong();
+        lastShotTick = in.getLong();
+        lastEnemyShotTick = in.getLong();
+        playerX = in.getInt();
+        prevPlayerX = in.getInt();
+        score = in.getInt();
+        lives = in.getInt();
+        wave = in.getInt();
+        MAX_BULLETS = in.getInt();
+        weaponLevel = in.getInt();
+        lastExtraLifeScore = in.getInt();
+        animationCounter = in.getInt();
+        heldInput = in.getInt();
+        tappedInput = in.getInt();
+        stressInvaders = in.getInt();
+        stressShots = in.getInt();
+        player2X = in.getInt();
+        prevPlayer2X = in.getInt();
+        lastShotTick2 = in.getLong();
+        int nextId = in.getInt();
+        int flags = in.getShort();
+        gameRunning = (flags & 1) != 0;
+        gameOver = (flags & 2) != 0;
+        bossLevel = (flags & 4) != 0;
+        postBossMode = (flags & 8) != 0;
+        canShoot = (flags & 16) != 0;
+        powerfulRounds = (flags & 32) != 0;
+        alienAntennaUp = (flags & 64) != 0;
+        coop = (flags & 128) != 0;
+        canShoot2 = (flags & 256) != 0;
+        world.clear();
+        int live = in.getInt();
+        for (int n = 0; n < live; n++) {
+            int kind = in.get(), variant = in.get(), id = in.getInt();
+            int e = world.spawn(kind, in.getInt(), in.getInt(), 0, 0);
+            world.id[e] = id;
+            world.variant[e] = variant;
+            world.prevX[e] = in.getInt();
+            world.prevY[e] = in.getInt();
+            world.vx[e] = in.getInt();
+            world.vy[e] = in.getInt();
+            world.health[e] = in.getInt();
+            world.width[e] = in.getInt();
+            world.height[e] = in.getInt();
+        }
+        world.nextId = nextId;
+    }
+    
+    // F5 / F9 - save the game to snapshotPath or load it back
+    private void quickSnapshot(int key) {
+        java.nio.file.Path path = java.nio.file.Paths.get(snapshotPath);
+        try {
+            if (key == KeyEvent.VK_F5) {
+                java.nio.ByteBuffer buffer = java.nio.ByteBuffer.allocate(snapshotSize());
+                saveSnapshot(buffer);
+                java.nio.file.Files.write(path, buffer.array());
+                System.out.println("Saved game to " + path);
+            } else if (recording != null) { // Jumping to another state would break the replay
+                System.err.println("Can't load a saved game while recording");
+            } else {
+                byte[] data = java.nio.file.Files.readAllBytes(path);
+                java.nio.ByteBuffer current = java.nio.ByteBuffer.allocate(snapshotSize());
+                saveSnapshot(current); // Keep the game we're in, in case the file is damaged
+                current.flip();
+                try {
+                    loadSnapshot(java.nio.ByteBuffer.wrap(data));
+                } catch (RuntimeException e) {
+                    loadSnapshot(current);
+                    throw e;
+                }
+                System.out.println("Loaded game from " + path);
             }
+        } catch (java.io.IOException | RuntimeException e) {
+            System.err.println("Could not " + (key == KeyEvent.VK_F5 ? "save" : "load") + " game: " + e.getMessage());
         }
     }
     
-    // Inner class representing a player bullet
-    class Bullet {
-        int x, y; // Position
-        int speed = -10; // Upward movement speed (negative Y)
-        boolean powerful; // Whether this is a powerful bullet
+    // Write the recorded inputs to a file, with a hash of the state they led to
+    synchronized void saveRecording(String path) {
+        if (recording == null) return;
+        try {
+            recording.save(path, stateHash());
+            System.out.println("Saved replay of " + recording.ticks + " ticks to " + path);
+        } catch (java.io.IOException e) {
+            System.err.println("Could not save replay: " + e.getMessage());
+        }
+    }
+    
+    // java.util.Random with its state in the open so snapshots can save and restore it. It is
+    // the same 48-bit generator as Random, so seeded games and old replays play out unchanged.
+    static class GameRandom extends Random {
+        private static final long MULTIPLIER = 0x5DEECE66DL, ADDEND = 0xBL, MASK = (1L << 48) - 1;
+        private long state; // No initializer - Random's constructor sets it through setSeed()
+        
+        GameRandom(long seed) {
+            super(seed);
+        }
         
-        Bullet(int x, int y, boolean powerful) {
-            this.x = x; // X position (centered on player)
-            this.y = y; // Y position (at player's top)
-            this.powerful = powerful; // Set power level
+        @Override
+        public void setSeed(long seed) {
+            state = (seed ^ MULTIPLIER) & MASK; // Same scrambling as Random
         }
         
-        void move() {
-            y += speed; // Move upward
+        @Override
+        protected int next(int bits) {
+            state = (state * MULTIPLIER + ADDEND) & MASK;
+            return (int) (state >>> (48 - bits));
         }
+        
+        long state() { return state; }
+        void setState(long state) { this.state = state & MASK; }
     }
     
-    // Inner class representing a boss bullet  
-    class BossBullet {
-        int x, y; // Position
-        int speed = 6; // Downward movement speed (positive Y)
+    // Entity-component store for every game object except the player. An entity is an index into
+    // parallel component arrays (position, velocity, health, collider, render tag); live entities
+    // are packed into [0, count) in creation order and the systems loop straight over the arrays.
+    // kill() only marks an entity dead, so indexes stay valid while systems run; compact() squeezes
+    // the dead out once per tick without changing the order of the survivors.
+    // A new entity type (a power-up, a shield) is a new kind with its own default components -
+    // movement, collision and drawing already handle it through its edge behaviour, layer and tag.
+    static class World {
+        int count; // Entities in use, dead or alive, until the next compact()
+        int[] kind; // INVADER, BOSS, ...
+        int[] id; // Never reused, so other machines can tell entities apart across ticks
+        int nextId = 0; // Id of the next entity spawned
+        int[] x, y; // Position component
+        int[] prevX, prevY; // Position at the end of the previous tick, for render interpolation
+        int[] vx, vy; // Velocity component (pixels per tick)
+        int[] health; // Health component
+        int[] width, height, layer; // Collider component
+        int[] edge; // What happens at the screen border
+        int[] sprite, variant; // Render component - tag and style (row color, powerful laser)
+        boolean[] dead; // Destroyed this tick, waiting for compact()
+        final int[] kindCount = new int[KIND_COUNT]; // Live entities of each kind
+        
+        static final int PARALLEL_MIN = 4_096; // Fewer entities move faster on one thread than waking the pool takes
+        WorkerPool pool; // Threads for big worlds (null = everything on the calling thread)
+        private int[][] culled = new int[1][KIND_COUNT]; // Per slice: entities of each kind move() removed
+        private boolean movingShips, movingShots; // What the move() in progress moves
+        private final java.util.function.IntConsumer moveTask = slice ->
+            moveSlice(pool.sliceStart(count, slice), pool.sliceStart(count, slice + 1), culled[slice]);
+        
+        World(int capacity) {
+            allocate(capacity);
+        }
         
-        BossBullet(int x, int y) {
-            this.x = x; // X position (centered on boss)
-            this.y = y; // Y position (at boss's bottom)
+        // (Re)size every component array, keeping existing entities
+        private void allocate(int capacity) {
+            kind = resize(kind, capacity);
+            id = resize(id, capacity);
+            x = resize(x, capacity);
+            y = resize(y, capacity);
+            prevX = resize(prevX, capacity);
+            prevY = resize(prevY, capacity);
+            vx = resize(vx, capacity);
+            vy = resize(vy, capacity);
+            health = resize(health, capacity);
+            width = resize(width, capacity);
+            height = resize(height, capacity);
+            layer = resize(layer, capacity);
+            edge = resize(edge, capacity);
+            sprite = resize(sprite, capacity);
+            variant = resize(variant, capacity);
+            dead = dead == null ? new boolean[capacity] : java.util.Arrays.copyOf(dead, capacity);
         }
         
-        void move() {
-            y += speed; // Move downward
+        private static int[] resize(int[] array, int capacity) {
+            return array == null ? new int[capacity] : java.util.Arrays.copyOf(array, capacity);
         }
-    }
-    
-    // Inner class representing an enemy bullet
-    class EnemyBullet {
-        int x, y; // Position
-        int speed; // Downward movement speed
         
-        EnemyBullet(int x, int y, int speed) {
-            this.x = x; // X position (centered on enemy)
-            this.y = y; // Y position (at enemy's bottom)
-            this.speed = speed; // Movement speed
+        // Create an entity with its kind's default components and return its index
+        int spawn(int kind, int x, int y, int vx, int vy) {
+            if (count == this.x.length) { // Full - double every column (rare, so steady play doesn't allocate)
+                allocate(count * 2);
+            }
+            int e = count++;
+            this.kind[e] = kind;
+            id[e] = nextId++;
+            this.x[e] = x;
+            this.y[e] = y;
+            prevX[e] = x; // New entities appear where they spawn, not sliding in
+            prevY[e] = y;
+            this.vx[e] = vx;
+            this.vy[e] = vy;
+            health[e] = 1;
+            width[e] = KIND_WIDTH[kind];
+            height[e] = KIND_HEIGHT[kind];
+            layer[e] = KIND_LAYER[kind];
+            edge[e] = KIND_EDGE[kind];
+            sprite[e] = KIND_SPRITE[kind];
+            variant[e] = 0;
+            dead[e] = false;
+            kindCount[kind]++;
+            return e;
         }
         
-        void move() {
-            y += speed; // Move downward
+        // Mark an entity destroyed - it stops taking part right away and is removed by compact()
+        void kill(int e) {
+            if (!dead[e]) {
+                dead[e] = true;
+                kindCount[kind[e]]--;
+            }
         }
-    }
-    
-    // Inner class representing a boss enemy
-    class Boss {
-        int x, y, speed, direction = 1; // Position, speed, movement direction
-        int health = 10; // Health points (requires 10 hits)
         
-        Boss(int x, int y, int speed) {
-            this.x = x; // X position
-            this.y = y; // Y position
-            this.speed = speed; // Movement speed
+        // Destroy every entity of one kind
+        void killKind(int kind) {
+            for (int e = 0; e < count; e++) {
+                if (this.kind[e] == kind) {
+                    kill(e);
+                }
+            }
+        }
+        
+        // Remove every entity at once
+        void clear() {
+            count = 0;
+            java.util.Arrays.fill(kindCount, 0);
+        }
+        
+        // Remove dead entities, sliding the survivors down in order - one linear pass per tick
+        void compact() {
+            int to = 0;
+            for (int from = 0; from < count; from++) {
+                if (dead[from]) continue;
+                if (to != from) {
+                    kind[to] = kind[from];
+                    id[to] = id[from];
+                    x[to] = x[from];
+                    y[to] = y[from];
+                    prevX[to] = prevX[from];
+                    prevY[to] = prevY[from];
+                    vx[to] = vx[from];
+                    vy[to] = vy[from];
+                    health[to] = health[from];
+                    width[to] = width[from];
+                    height[to] = height[from];
+                    layer[to] = layer[from];
+                    edge[to] = edge[from];
+                    sprite[to] = sprite[from];
+                    variant[to] = variant[from];
+                    dead[to] = false;
+                }
+                to++;
+            }
+            count = to;
+        }
+        
+        // Remember every position before a tick moves anything
+        void savePositions() {
+            System.arraycopy(x, 0, prevX, 0, count);
+            System.arraycopy(y, 0, prevY, 0, count);
+        }
+        
+        // Sub-pixel position to draw an entity at, alpha of the way from last tick to this one
+        float renderX(int e, float alpha) { return prevX[e] + (x[e] - prevX[e]) * alpha; }
+        float renderY(int e, float alpha) { return prevY[e] + (y[e] - prevY[e]) * alpha; }
+        
+        // Share big worlds' work out over threads (null or 1 thread goes back to single-threaded)
+        void usePool(WorkerPool pool) {
+            this.pool = pool != null && pool.size() > 1 ? pool : null;
+            culled = new int[this.pool != null ? this.pool.size() : 1][KIND_COUNT];
         }
         
-        // Move boss horizontally, bouncing between screen edges
+        // Whether this tick's systems should split their work over the pool
+        boolean parallel() {
+            return pool != null && count >= PARALLEL_MIN;
+        }
+        
+        // Movement system - apply velocity to everything, then each entity's edge behaviour.
+        // Entities don't affect each other while moving, so a big world moves in slices on the
+        // pool; each slice counts what it culled and the counts are merged afterwards, which
+        // leaves exactly the state a single thread would have
         void move() {
-            x += speed * direction; // Move in current direction
-            
-            if (x <= 0 || x >= WIDTH - BOSS_WIDTH) { // If hit left or right edge
-                direction *= -1; // Reverse direction
+            move(true, true);
+        }
+        
+        // Move only the ships (everything that stays on screen), only the bullets, or both
+        void move(boolean ships, boolean shots) {
+            movingShips = ships;
+            movingShots = shots;
+            if (parallel()) {
+                pool.run(moveTask);
+            } else {
+                moveSlice(0, count, culled[0]);
+            }
+            for (int[] slice : culled) {
+                for (int k = 0; k < KIND_COUNT; k++) {
+                    kindCount[k] -= slice[k];
+                    slice[k] = 0;
+                }
+            }
+        }
+        
+        // Move entities from up to (not including) to, counting culled ones by kind into removed
+        private void moveSlice(int from, int to, int[] removed) {
+            for (int e = from; e < to; e++) {
+                if (dead[e] || !(edge[e] == EDGE_CULL ? movingShots : movingShips)) continue;
+                x[e] += vx[e];
+                y[e] += vy[e];
+                switch (edge[e]) {
+                    case EDGE_BOUNCE_DESCEND: // If hit left or right edge, reverse and move down one row
+                        if (x[e] <= 0 || x[e] >= WIDTH - width[e]) {
+                            vx[e] = -vx[e];
+                            y[e] += 35;
+                        }
+                        break;
+                    case EDGE_BOUNCE: // Bounce between screen edges
+                        if (x[e] <= 0 || x[e] >= WIDTH - width[e]) {
+                            vx[e] = -vx[e];
+                        }
+                        break;
+                    case EDGE_CULL: // Bullets are gone once they leave the screen
+                        if (y[e] < 0 || y[e] > HEIGHT) {
+                            dead[e] = true; // kill() without touching the shared counts
+                            removed[kind[e]]++;
+                        }
+                        break;
+                }
+            }
+        }
+        
+        // Whether two entities' colliders overlap (edges count, so a point collider acts like a point test)
+        boolean overlaps(int a, int b) {
+            return overlaps(a, x[b], y[b], width[b], height[b]);
+        }
+        
+        // Whether an entity's collider overlaps a box
+        boolean overlaps(int a, int boxX, int boxY, int boxWidth, int boxHeight) {
+            return x[a] <= boxX + boxWidth && boxX <= x[a] + width[a] &&
+                   y[a] <= boxY + boxHeight && boxY <= y[a] + height[a];
+        }
+        
+        int count(int kind) { return kindCount[kind]; } // Live entities of one kind
+        
+        // Index of the n-th live entity of a kind (counting from 0)
+        int nth(int kind, int n) {
+            for (int e = 0; e < count; e++) {
+                if (this.kind[e] == kind && !dead[e] && n-- == 0) {
+                    return e;
+                }
             }
+            return -1;
+        }
+        
+        // Index of the first live entity of a kind, or -1
+        int first(int kind) {
+            return kindCount[kind] == 0 ? -1 : nth(kind, 0);
         }
     }
     
-    // Main method - program entry point
-    public static void main(String[] args) {
-        // Use SwingUtilities to ensure thread-safe GUI creation
-        SwingUtilities.invokeLater(() -> {
-            JFrame frame = new JFrame("Space Invaders - Enhanced Version"); // Create game window
-            SpaceInvaders game = new SpaceInvaders(); // Create game instance
+    // Every sprite painted once into an image so each frame is just a set of drawImage calls.
+    // Images come from the screen's graphics configuration when there is one, which lets
+    // Java2D keep them in video memory the same way it would a VolatileImage.
+    static class SpriteAtlas {
+        static final int MAX_HEALTH_BAR = 10; // Health bars are full at 10 hits
+        static final int ALIEN_TOP = 5; // Space above an alien for its antenna and health bar
+        static final int BOSS_TOP = 15; // Space above the boss for its health bar
+        
+        private static SpriteAtlas instance; // Built the first time anything is drawn
+        
+        // [row color][health 0-10][antenna down/up] - health only changes the bar
+        final Image[][][] aliens = new Image[ROW_COLORS.length][MAX_HEALTH_BAR + 1][2];
+        final Image[] bosses = new Image[MAX_HEALTH_BAR + 1]; // Boss by remaining health
+        final Image playerShip, player2Ship, lifeIcon, laser, powerfulLaser, enemyBullet, fireball;
+        
+        static SpriteAtlas get() {
+            if (instance == null) { // Only ever touched from the thread that paints
+                instance = new SpriteAtlas();
+            }
+            return instance;
+        }
+        
+        private SpriteAtlas() {
+            for (int color = 0; color < ROW_COLORS.length; color++) {
+                for (int health = 0; health <= MAX_HEALTH_BAR; health++) {
+                    for (int antenna = 0; antenna < 2; antenna++) {
+                        BufferedImage image = createImage(INVADER_SIZE, INVADER_SIZE + ALIEN_TOP);
+                        Graphics2D g = image.createGraphics();
+                        paintAlien(g, 0, ALIEN_TOP, ROW_COLORS[color], health, antenna == 1);
+                        g.dispose();
+                        aliens[color][health][antenna] = image;
+                    }
+                }
+            }
+            for (int health = 0; health <= MAX_HEALTH_BAR; health++) {
+                BufferedImage image = createImage(BOSS_WIDTH + 1, BOSS_HEIGHT + BOSS_TOP);
+                Graphics2D g = image.createGraphics();
+                paintBoss(g, 0, BOSS_TOP, health);
+                g.dispose();
+                bosses[health] = image;
+            }
             
-            frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE); // Close on X button
-            frame.getContentPane().add(game); // Add game panel to frame
-            frame.pack(); // Size frame to fit game panel
-            frame.setLocationRelativeTo(null); // Center window on screen
-            frame.setResizable(false); // Prevent window resizing
-            frame.setVisible(true); // Make window visible
-            game.requestFocusInWindow(); // Ensure game receives keyboard input
-        });
+            BufferedImage image = createImage(PLAYER_WIDTH, PLAYER_HEIGHT + 10); // Extra room for the engine glow
+            Graphics2D g = image.createGraphics();
+            paintPlayerShip(g, 0, 0, new Color(0, 255, 255), new Color(0, 150, 255), new Color(0, 200, 255));
+            g.dispose();
+            playerShip = image;
+            
+            image = createImage(PLAYER_WIDTH, PLAYER_HEIGHT + 10);
+            g = image.createGraphics();
+            paintPlayerShip(g, 0, 0, new Color(255, 0, 255), new Color(200, 0, 150), new Color(255, 100, 200)); // Magenta co-op ship
+            g.dispose();
+            player2Ship = image;
+            
+            image = createImage(9, 7);
+            g = image.createGraphics();
+            g.setColor(Color.CYAN); // Set ship color
+            g.fillPolygon(new int[]{4, 0, 8}, new int[]{0, 6, 6}, 3); // Draw small triangle ship
+            g.dispose();
+            lifeIcon = image;
+            
+            image = createImage(BULLET_SIZE, BULLET_SIZE * 3);
+            g = image.createGraphics();
+            g.setPaint(new GradientPaint(0, 0, Color.CYAN, 0, BULLET_SIZE * 3, Color.BLUE)); // Cyan to blue laser
+            g.fillRect(0, 0, BULLET_SIZE, BULLET_SIZE * 3);
+            g.dispose();
+            laser = image;
+            
+            image = createImage(BULLET_SIZE + 2, BULLET_SIZE * 4);
+            g = image.createGraphics();
+            g.setPaint(new GradientPaint(0, 0, Color.YELLOW, 0, BULLET_SIZE * 4, Color.RED)); // Yellow to red laser
+            g.fillRect(0, 0, BULLET_SIZE + 2, BULLET_SIZE * 4);
+            g.dispose();
+            powerfulLaser = image;
+            
+            image = createImage(6, 10);
+            g = image.createGraphics();
+            g.setColor(Color.RED); // Enemy bullets are red ovals
+            g.fillOval(0, 0, 6, 10);
+            g.dispose();
+            enemyBullet = image;
+            
+            image = createImage(8, 8);
+            g = image.createGraphics();
+            g.setColor(Color.ORANGE); // Outer fireball
+            g.fillOval(0, 0, 8, 8);
+            g.setColor(Color.YELLOW); // Inner fireball
+            g.fillOval(2, 2, 4, 4);
+            g.dispose();
+            fireball = image;
+        }
+        
+        // Alien image for a color, health and antenna state (bars above 10 health are drawn full)
+        Image alien(int colorIndex, int health, boolean antennaUp) {
+            return aliens[colorIndex][Math.max(0, Math.min(MAX_HEALTH_BAR, health))][antennaUp ? 1 : 0];
+        }
+        
+        // Boss image for its remaining health
+        Image boss(int health) {
+            return bosses[Math.max(0, Math.min(MAX_HEALTH_BAR, health))];
+        }
+        
+        // Transparent image suited to the screen, or a plain ARGB image when running headless
+        private static BufferedImage createImage(int width, int height) {
+            if (GraphicsEnvironment.isHeadless()) {
+                return new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            }
+            return GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice()
+                .getDefaultConfiguration().createCompatibleImage(width, height, Transparency.TRANSLUCENT);
+        }
+        
+        // Paint player ship as a triangle with details
+        private static void paintPlayerShip(Graphics2D g, int x, int y, Color hull, Color cockpit, Color wings) {
+            // Define triangle points for ship body
+            int[] xPoints = {
+                x + PLAYER_WIDTH / 2,        // Nose tip (center top)
+                x + 15,                      // Left bottom corner
+                x + PLAYER_WIDTH - 15        // Right bottom corner
+            };
+            int[] yPoints = {
+                y + 5,                       // Nose Y position
+                y + PLAYER_HEIGHT - 5,       // Left bottom Y
+                y + PLAYER_HEIGHT - 5        // Right bottom Y
+            };
+            
+            g.setColor(hull); // Set ship color (cyan for player 1)
+            g.fillPolygon(xPoints, yPoints, 3); // Draw filled triangle
+            
+            g.setColor(cockpit); // Set cockpit color (blue for player 1)
+            g.fillOval(x + PLAYER_WIDTH / 2 - 8, y, 16, 12); // Draw cockpit dome
+            
+            g.setColor(wings); // Set wing color
+            g.fillRect(x + 5, y + PLAYER_HEIGHT - 12, PLAYER_WIDTH - 10, 8); // Draw wings
+            
+            // Create gradient for engine glow
+            GradientPaint engineGlow = new GradientPaint(
+                x + PLAYER_WIDTH / 2 - 4, y + PLAYER_HEIGHT, // Start position
+                Color.YELLOW, // Start color
+                x + PLAYER_WIDTH / 2 - 4, y + PLAYER_HEIGHT + 10, // End position  
+                Color.ORANGE // End color
+            );
+            g.setPaint(engineGlow); // Apply gradient
+            g.fillRect(x + PLAYER_WIDTH / 2 - 4, y + PLAYER_HEIGHT, 8, 10); // Draw engine
+        }
+        
+        // Paint alien invader in emoji style
+        private static void paintAlien(Graphics2D g, int x, int y, Color color, int health, boolean antennaUp) {
+            g.setColor(color); // Set alien body color
+            g.fillOval(x + 5, y + 8, INVADER_SIZE - 10, INVADER_SIZE - 16); // Draw main body
+            
+            g.setColor(color.brighter()); // Set brighter color for head
+            g.fillOval(x + 8, y + 2, INVADER_SIZE - 16, 12); // Draw head dome
+            
+            g.setColor(Color.BLACK); // Set eye color to black
+            g.fillOval(x + 10, y + 10, 8, 10); // Draw left eye
+            g.fillOval(x + INVADER_SIZE - 18, y + 10, 8, 10); // Draw right eye
+            
+            g.setColor(Color.WHITE); // Set highlight color
+            g.fillOval(x + 12, y + 12, 3, 4); // Draw left eye highlight
+            g.fillOval(x + INVADER_SIZE - 16, y + 12, 3, 4); // Draw right eye highlight
+            
+            g.setColor(Color.BLACK); // Set mouth color
+            g.fillRect(x + 15, y + 25, INVADER_SIZE - 30, 2); // Draw mouth line
+            
+            g.setColor(color); // Set antenna color
+            if (antennaUp) { // If antenna should be up
+                g.fillOval(x + INVADER_SIZE / 2 - 2, y - 3, 4, 6); // Draw antenna
+            }
+            
+            // Draw health bar for enemies with more than 1 health
+            if (health > 1) {
+                g.setColor(Color.RED); // Set health bar background color
+                g.fillRect(x, y - 5, INVADER_SIZE, 3); // Draw full health bar background
+                g.setColor(Color.GREEN); // Set health bar color
+                int healthWidth = (INVADER_SIZE * health) / 10; // Calculate current health width
+                g.fillRect(x, y - 5, healthWidth, 3); // Draw current health
+            }
+        }
+        
+        // Paint boss enemy
+        private static void paintBoss(Graphics2D g, int x, int y, int health) {
+            g.setColor(new Color(180, 0, 180)); // Set boss color to purple
+            g.fillOval(x + 10, y + 15, BOSS_WIDTH - 20, BOSS_HEIGHT - 20); // Draw body
+            
+            g.setColor(new Color(200, 50, 200)); // Set head color
+            g.fillOval(x + 20, y + 5, BOSS_WIDTH - 40, 20); // Draw head
+            
+            g.setColor(Color.BLACK); // Set eye color
+            g.fillOval(x + 25, y + 20, 15, 20); // Draw left eye
+            g.fillOval(x + BOSS_WIDTH - 40, y + 20, 15, 20); // Draw right eye
+            
+            g.setColor(Color.WHITE); // Set eye highlight color
+            g.fillOval(x + 28, y + 23, 6, 8); // Draw left eye highlight
+            g.fillOval(x + BOSS_WIDTH - 37, y + 23, 6, 8); // Draw right eye highlight
+            
+            g.setColor(Color.BLACK); // Set mouth color
+            g.fillRect(x + 35, y + 45, BOSS_WIDTH - 70, 4); // Draw mouth
+            
+            // Draw boss health bar
+            g.setColor(Color.RED); // Set health bar background color
+            g.fillRect(x, y - 15, BOSS_WIDTH, 8); // Draw full health bar
+            g.setColor(Color.GREEN); // Set health bar color
+            int healthWidth = (BOSS_WIDTH * health) / 10; // Calculate current health width
+            g.fillRect(x, y - 15, healthWidth, 8); // Draw current health
+            g.setColor(Color.WHITE); // Set border color
+            g.drawRect(x, y - 15, BOSS_WIDTH, 8); // Draw health bar border
+        }
+    }
+    
+    // Background stars in three layers that scroll down at different speeds for parallax. The far
+    // layer holds most of the stars and is pre-rendered into one opaque screen-sized image that
+    // carries the background color, so copying it also clears the frame. The two nearer layers are
+    // sparse, so instead of mostly empty transparent screens (slow to blend) each of their stars is
+    // a pre-rendered sprite copied at a fixed spot. The scroll position comes from the game tick,
+    // so there is nothing to update.
+    static class Starfield {
+        private static final int[] STARS = {140, 60, 25}; // Stars per layer, far to near
+        private static final int[] STAR_SIZE = {1, 2, 3}; // Pixels across
+        private static final float[] SPEED = {0.5f, 1f, 2f}; // Pixels per tick
+        private static final Color[] STAR_COLOR = {new Color(110, 110, 150), new Color(180, 180, 210), Color.WHITE};
+        
+        private static Starfield instance; // Shared by every game - the stars never change
+        private final Image far; // Background color plus the far layer
+        private final Image[] sprites = new Image[STARS.length]; // One star of each nearer layer
+        private final int[][] starX = new int[STARS.length][], starY = new int[STARS.length][]; // Nearer layers only
+        
+        static Starfield get() {
+            if (instance == null) { // Only ever touched from the thread that paints
+                instance = new Starfield();
+            }
+            return instance;
+        }
+        
+        private Starfield() {
+            Random random = new Random(7); // Same sky every time
+            BufferedImage image = createOpaqueImage();
+            Graphics2D g = image.createGraphics();
+            g.setColor(BACKGROUND_COLOR);
+            g.fillRect(0, 0, WIDTH, HEIGHT);
+            g.setColor(STAR_COLOR[0]);
+            for (int i = 0; i < STARS[0]; i++) {
+                g.fillRect(random.nextInt(WIDTH), random.nextInt(HEIGHT), STAR_SIZE[0], STAR_SIZE[0]);
+            }
+            g.dispose();
+            far = image;
+            for (int layer = 1; layer < STARS.length; layer++) {
+                int size = STAR_SIZE[layer];
+                BufferedImage sprite = SpriteAtlas.createImage(size, size);
+                Graphics2D s = sprite.createGraphics();
+                s.setColor(STAR_COLOR[layer]);
+                s.fillRect(0, 0, size, size);
+                s.dispose();
+                sprites[layer] = sprite;
+                starX[layer] = new int[STARS[layer]];
+                starY[layer] = new int[STARS[layer]];
+                for (int i = 0; i < STARS[layer]; i++) {
+                    starX[layer][i] = random.nextInt(WIDTH);
+                    starY[layer][i] = random.nextInt(HEIGHT);
+                }
+            }
+        }
+        
+        private static BufferedImage createOpaqueImage() {
+            if (GraphicsEnvironment.isHeadless()) {
+                return new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+            }
+            return GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice()
+                .getDefaultConfiguration().createCompatibleImage(WIDTH, HEIGHT, Transparency.OPAQUE);
+        }
+        
+        // Draw every layer scrolled to where it is alpha of the way past the given tick
+        void draw(Graphics g, long tick, float alpha) {
+            int offset = offset(0, tick, alpha);
+            g.drawImage(far, 0, offset - HEIGHT, null); // Part that has scrolled in at the top
+            g.drawImage(far, 0, offset, null);
+            for (int layer = 1; layer < STARS.length; layer++) {
+                offset = offset(layer, tick, alpha);
+                int[] xs = starX[layer], ys = starY[layer];
+                for (int i = 0; i < xs.length; i++) {
+                    int y = ys[i] + offset;
+                    g.drawImage(sprites[layer], xs[i], y < HEIGHT ? y : y - HEIGHT, null); // Wrap back to the top
+                }
+            }
+        }
+        
+        private static int offset(int layer, long tick, float alpha) {
+            double scrolled = ((tick % (2L * HEIGHT)) + alpha) * SPEED[layer]; // Repeats every 2 * HEIGHT ticks
+            return (int) (scrolled % HEIGHT);
+        }
+    }
+    
+    // Cosmetic particles - explosions, hit sparks and engine trails. Every particle lives in
+    // preallocated primitive arrays (a dead one is swapped with the last live one), all of them
+    // move in one loop per tick, and drawing writes pixels straight into a single overlay image
+    // that goes to the screen in one drawImage call. Nothing is allocated after the first frame.
+    // They use their own random numbers and aren't game state, so replays, snapshots and co-op
+    // never see them. The budget caps live particles; bursts past it are cut short.
+    static class Particles {
+        static final int DEFAULT_BUDGET = 65_536;
+        static final int SIZE = 2; // Pixels across
+        static final int SHADES = 16; // Fade steps from just born to gone
+        // Palettes - 0 to 3 are the alien row colors
+        static final int SPARK = ROW_COLORS.length, FIRE = SPARK + 1, PLAYER = SPARK + 2, PLAYER2 = SPARK + 3, ENGINE = SPARK + 4;
+        private static final Color[] PALETTE_COLORS = {new Color(255, 255, 180), new Color(255, 140, 0),
+            new Color(0, 255, 255), new Color(255, 0, 255), new Color(255, 200, 60)};
+        
+        final int budget; // Most particles alive at once
+        int count = 0; // Live particles, packed at the front
+        final float[] x, y, vx, vy; // Position and velocity (pixels per tick)
+        final short[] life, maxLife; // Ticks left, ticks at birth
+        final byte[] palette;
+        static final int DIRECT_MAX = 512; // Up to this many particles are filled straight into the frame
+        private final int[][] colors; // [palette][shade] premultiplied ARGB, fading out with age
+        private final Color[][] shadeColors; // The same colors for fillRect
+        private BufferedImage overlay; // Screen-sized, transparent except for particles (made on first draw)
+        private int[] pixels; // The overlay's pixel array
+        private final int[] drawn; // Pixel index of every particle drawn last frame, to erase it
+        private int drawnCount = 0;
+        private long seed = 0x9E3779B97F4A7C15L; // Own xorshift state - the game's RNG stays untouched
+        
+        Particles(int budget) {
+            this.budget = budget;
+            x = new float[budget];
+            y = new float[budget];
+            vx = new float[budget];
+            vy = new float[budget];
+            life = new short[budget];
+            maxLife = new short[budget];
+            palette = new byte[budget];
+            drawn = new int[budget];
+            colors = new int[ROW_COLORS.length + PALETTE_COLORS.length][SHADES];
+            shadeColors = new Color[colors.length][SHADES];
+            for (int p = 0; p < colors.length; p++) {
+                Color color = p < ROW_COLORS.length ? ROW_COLORS[p] : PALETTE_COLORS[p - ROW_COLORS.length];
+                for (int shade = 0; shade < SHADES; shade++) {
+                    int a = 255 * (shade + 1) / SHADES; // Older particles are more transparent
+                    colors[p][shade] = a << 24 | (color.getRed() * a / 255) << 16 | (color.getGreen() * a / 255) << 8 | color.getBlue() * a / 255;
+                    shadeColors[p][shade] = new Color(color.getRed(), color.getGreen(), color.getBlue(), a);
+                }
+            }
+        }
+        
+        // Up to n particles flying out from a point in random directions, up to speed pixels per tick
+        void burst(float atX, float atY, int n, float speed, int paletteIndex, int ticks) {
+            for (int k = 0; k < n && count < budget; k++) {
+                double angle = nextFloat() * 2 * Math.PI;
+                float v = speed * (0.2f + 0.8f * nextFloat());
+                add(atX, atY, (float) Math.cos(angle) * v, (float) Math.sin(angle) * v, paletteIndex,
+                    (int) (ticks * (0.5f + 0.5f * nextFloat())));
+            }
+        }
+        
+        // A couple of exhaust particles drifting down from an engine
+        void trail(float atX, float atY) {
+            for (int k = 0; k < 2 && count < budget; k++) {
+                add(atX + (nextFloat() - 0.5f) * 6, atY, (nextFloat() - 0.5f) * 0.6f, 1.5f + nextFloat() * 1.5f, ENGINE,
+                    10 + (int) (nextFloat() * 10));
+            }
+        }
+        
+        private void add(float atX, float atY, float speedX, float speedY, int paletteIndex, int ticks) {
+            int i = count++;
+            x[i] = atX;
+            y[i] = atY;
+            vx[i] = speedX;
+            vy[i] = speedY;
+            life[i] = (short) Math.max(1, ticks);
+            maxLife[i] = life[i];
+            palette[i] = (byte) paletteIndex;
+        }
+        
+        // One tick for every particle - age, move, slow down a little, fall a little
+        void update() {
+            for (int i = 0; i < count; i++) {
+                if (--life[i] <= 0) { // Dead - move the last particle into this slot and look at it next
+                    int last = --count;
+                    x[i] = x[last];
+                    y[i] = y[last];
+                    vx[i] = vx[last];
+                    vy[i] = vy[last];
+                    life[i] = life[last];
+                    maxLife[i] = maxLife[last];
+                    palette[i] = palette[last];
+                    i--;
+                    continue;
+                }
+                x[i] += vx[i];
+                y[i] += vy[i];
+                vx[i] *= 0.96f; // Drag
+                vy[i] = vy[i] * 0.96f + 0.04f; // Drag and a hint of gravity
+            }
+        }
+        
+        // Draw every particle alpha of the way into the next tick. A few (the engine trail) are
+        // filled straight into the frame; a crowd is written into one overlay image, and only the
+        // rectangle around them is blended onto the frame - the overlay's raw pixels keep Java2D
+        // from accelerating it, so a full-screen blend would cost a millisecond a frame
+        void draw(Graphics g, float alpha) {
+            if (count == 0 && drawnCount == 0) return; // Nothing now, nothing left to erase
+            if (count <= DIRECT_MAX) {
+                erase();
+                for (int i = 0; i < count; i++) {
+                    int px = (int) (x[i] + vx[i] * alpha), py = (int) (y[i] + vy[i] * alpha);
+                    if (px < 0 || py < 0 || px > WIDTH - SIZE || py > HEIGHT - SIZE) continue; // Off screen
+                    g.setColor(shadeColors[palette[i]][(life[i] * SHADES - 1) / maxLife[i]]);
+                    g.fillRect(px, py, SIZE, SIZE);
+                }
+                return;
+            }
+            if (overlay == null) {
+                overlay = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB_PRE);
+                pixels = ((DataBufferInt) overlay.getRaster().getDataBuffer()).getData();
+            }
+            erase();
+            int[] p = pixels;
+            int minX = WIDTH, minY = HEIGHT, maxX = -1, maxY = -1; // Box around this frame's particles
+            for (int i = 0; i < count; i++) {
+                int px = (int) (x[i] + vx[i] * alpha), py = (int) (y[i] + vy[i] * alpha);
+                if (px < 0 || py < 0 || px > WIDTH - SIZE || py > HEIGHT - SIZE) continue; // Off screen
+                int index = py * WIDTH + px;
+                int color = colors[palette[i]][(life[i] * SHADES - 1) / maxLife[i]];
+                p[index] = p[index + 1] = p[index + WIDTH] = p[index + WIDTH + 1] = color;
+                drawn[drawnCount++] = index;
+                minX = Math.min(minX, px);
+                minY = Math.min(minY, py);
+                maxX = Math.max(maxX, px);
+                maxY = Math.max(maxY, py);
+            }
+            if (maxX >= 0) { // The frame is drawn from scratch, so erased pixels outside the box need no copy
+                g.drawImage(overlay, minX, minY, maxX + SIZE, maxY + SIZE, minX, minY, maxX + SIZE, maxY + SIZE, null);
+            }
+        }
+        
+        // Clear last overlay frame's particles only, not the whole image
+        private void erase() {
+            int[] p = pixels;
+            for (int d = 0; d < drawnCount; d++) {
+                int index = drawn[d];
+                p[index] = p[index + 1] = p[index + WIDTH] = p[index + WIDTH + 1] = 0;
+            }
+            drawnCount = 0;
+        }
+        
+        private float nextFloat() {
+            seed ^= seed << 13;
+            seed ^= seed >>> 7;
+            seed ^= seed << 17;
+            return (seed >>> 40) / (float) (1 << 24);
+        }
+    }
+    
+    // Uniform grid broad phase - each enemy is filed under every cell its box overlaps,
+    // so a laser only needs exact box tests against the enemies in its own cell
+    class SpatialGrid {
+        static final int COLS = WIDTH / CELL_SIZE + 1; // Number of cell columns
+        static final int ROWS = HEIGHT / CELL_SIZE + 1; // Number of cell rows
+        
+        int[] cellStart = new int[COLS * ROWS + 1]; // Where each cell's items begin in cellItems
+        int[] cellItems = new int[64]; // Entity indexes grouped by cell (reused every frame)
+        
+        // Rebuild the grid with a counting sort - linear in the number of enemies, no allocation once warmed up
+        void build(World world) {
+            java.util.Arrays.fill(cellStart, 0); // Clear cell counts
+            int total = 0; // Number of (cell, invader) entries
+            for (int i = 0; i < world.count; i++) { // Count entries per cell
+                if (world.dead[i] || world.layer[i] != LAYER_ENEMY) continue; // Only things lasers can hit
+                int c0 = column(world.x[i]), c1 = column(world.x[i] + world.width[i]);
+                int r0 = row(world.y[i]), r1 = row(world.y[i] + world.height[i]);
+                for (int r = r0; r <= r1; r++) {
+                    for (int c = c0; c <= c1; c++) {
+                        cellStart[r * COLS + c + 1]++; // Count goes one slot ahead for the prefix sum
+                        total++;
+                    }
+                }
+            }
+            for (int c = 0; c < COLS * ROWS; c++) { // Turn counts into start offsets
+                cellStart[c + 1] += cellStart[c];
+            }
+            if (cellItems.length < total) { // Grow only when the wave got bigger
+                cellItems = new int[Math.max(total, cellItems.length * 2)];
+            }
+            for (int i = 0; i < world.count; i++) { // Fill cells in index order so candidates stay sorted
+                if (world.dead[i] || world.layer[i] != LAYER_ENEMY) continue;
+                int c0 = column(world.x[i]), c1 = column(world.x[i] + world.width[i]);
+                int r0 = row(world.y[i]), r1 = row(world.y[i] + world.height[i]);
+                for (int r = r0; r <= r1; r++) {
+                    for (int c = c0; c <= c1; c++) {
+                        cellItems[cellStart[r * COLS + c]++] = i; // Use start as a write cursor
+                    }
+                }
+            }
+            for (int c = COLS * ROWS; c > 0; c--) { // Cursors now sit at each cell's end - shift them back
+                cellStart[c] = cellStart[c - 1];
+            }
+            cellStart[0] = 0;
+        }
+        
+        int column(int x) { return Math.max(0, Math.min(COLS - 1, x / CELL_SIZE)); } // Clamp X to a grid column
+        int row(int y) { return Math.max(0, Math.min(ROWS - 1, y / CELL_SIZE)); } // Clamp Y to a grid row
+        int cellAt(int x, int y) { return row(y) * COLS + column(x); } // Cell containing a point
+        int start(int cell) { return cellStart[cell]; } // First entry of a cell
+        int end(int cell) { return cellStart[cell + 1]; } // One past the last entry of a cell
+        int item(int k) { return cellItems[k]; } // Entity index stored at an entry
+    }
+    
+    // Frame timing for each phase of the game loop, kept in histograms so stutter shows up in
+    // the high percentiles instead of being averaged away
+    static class FrameStats {
+        static final int UPDATE = 0; // Whole updateGame call
+        static final int COLLISION = 1; // checkCollisions only (part of UPDATE)
+        static final int RENDER = 2; // Drawing one frame
+        static final int PRESENT = 3; // BufferStrategy.show (active mode only)
+        static final int FRAME = 4; // Time between two drawn frames
+        static final String[] PHASE_NAMES = {"update", "collision", "render", "present", "frame"};
+        
+        // Allocation counter for the current thread, when the JVM offers one
+        private static final java.lang.management.ThreadMXBean THREADS = java.lang.management.ManagementFactory.getThreadMXBean();
+        private static final jdk.jfr.EventType FRAME_EVENT_TYPE = jdk.jfr.EventType.getEventType(FrameEvent.class);
+        
+        final Histogram[] total = new Histogram[PHASE_NAMES.length]; // Whole session, for the CSV dump
+        final Histogram[] second = new Histogram[PHASE_NAMES.length]; // Current second, for the overlay
+        private final long[] lastValue = new long[PHASE_NAMES.length]; // Latest sample of each phase (for JFR)
+        private long lastFrameTime = 0; // When the previous frame was drawn
+        private long secondStart = 0; // When the current overlay second began
+        private long secondAllocStart = -1; // Thread allocation counter at the start of the second
+        private String[] overlay = {"collecting frame times..."}; // Text shown by the overlay
+        
+        FrameStats() {
+            for (int i = 0; i < PHASE_NAMES.length; i++) {
+                total[i] = new Histogram();
+                second[i] = new Histogram();
+            }
+        }
+        
+        // Add one timing sample in nanoseconds
+        synchronized void record(int phase, long nanos) {
+            total[phase].record(nanos);
+            second[phase].record(nanos);
+            lastValue[phase] = nanos;
+        }
+        
+        // Called after each frame is drawn - records the frame interval and refreshes the overlay every second
+        void frameDrawn(long now, int invaderCount, int shotCount) {
+            if (lastFrameTime != 0) {
+                record(FRAME, now - lastFrameTime);
+            }
+            lastFrameTime = now;
+            
+            if (FRAME_EVENT_TYPE.isEnabled()) { // Only build the event when a JFR recording wants it
+                FrameEvent event = new FrameEvent();
+                event.updateNanos = lastValue[UPDATE];
+                event.collisionNanos = lastValue[COLLISION];
+                event.renderNanos = lastValue[RENDER];
+                event.presentNanos = lastValue[PRESENT];
+                event.invaders = invaderCount;
+                event.projectiles = shotCount;
+                event.commit();
+            }
+            
+            if (now - secondStart >= 1_000_000_000L) { // Rebuild overlay text once per second
+                long allocated = allocatedBytes();
+                long allocRate = secondAllocStart < 0 || allocated < 0 ? -1
+                    : (allocated - secondAllocStart) * 1_000_000_000L / Math.max(1, now - secondStart);
+                overlay = buildOverlay(invaderCount, shotCount, allocRate);
+                for (Histogram histogram : second) {
+                    histogram.reset();
+                }
+                secondStart = now;
+                secondAllocStart = allocated;
+            }
+        }
+        
+        String[] overlayLines() {
+            return overlay;
+        }
+        
+        // One line per phase with the last second's percentiles, then entity counts and allocation rate
+        private synchronized String[] buildOverlay(int invaderCount, int shotCount, long allocRate) {
+            String[] lines = new String[PHASE_NAMES.length + 2];
+            for (int i = 0; i < PHASE_NAMES.length; i++) {
+                Histogram h = second[i];
+                lines[i] = String.format("%-9s p50 %6.2f  p99 %6.2f  max %6.2f ms",
+                    PHASE_NAMES[i], h.percentile(50) / 1e6, h.percentile(99) / 1e6, h.max() / 1e6);
+            }
+            lines[PHASE_NAMES.length] = "invaders " + invaderCount + "  projectiles " + shotCount;
+            lines[PHASE_NAMES.length + 1] = allocRate < 0 ? "alloc n/a" : "alloc " + allocRate / 1024 + " KB/s";
+            return lines;
+        }
+        
+        // Bytes allocated so far by the calling thread, or -1 if the JVM can't tell us
+        private static long allocatedBytes() {
+            if (THREADS instanceof com.sun.management.ThreadMXBean) {
+                return ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+            return -1;
+        }
+        
+        // Write whole-session percentiles for every phase as CSV
+        synchronized void writeCsv(String path) throws java.io.IOException {
+            try (java.io.PrintWriter out = new java.io.PrintWriter(new java.io.FileWriter(path))) {
+                out.println("phase,count,p50_ms,p90_ms,p99_ms,p99.9_ms,max_ms");
+                for (int i = 0; i < PHASE_NAMES.length; i++) {
+                    Histogram h = total[i];
+                    out.printf(java.util.Locale.ROOT, "%s,%d,%.3f,%.3f,%.3f,%.3f,%.3f%n", PHASE_NAMES[i], h.count(),
+                        h.percentile(50) / 1e6, h.percentile(90) / 1e6, h.percentile(99) / 1e6,
+                        h.percentile(99.9) / 1e6, h.max() / 1e6);
+                }
+            }
+        }
+    }
+    
+    // Log-linear histogram in the style of HdrHistogram - 64 linear sub-buckets per power of two,
+    // so any recorded value is reported within about 1.6% using a fixed 18 KB of counters
+    static class Histogram {
+        static final int SUB_BITS = 7; // 2^7 = 128 exact values before buckets start doubling
+        static final int SUB_COUNT = 1 << SUB_BITS;
+        static final int HALF_COUNT = SUB_COUNT / 2;
+        static final int MAX_SHIFT = 34; // Tracks values up to about 2^40 ns (18 minutes)
+        
+        final long[] counts = new long[SUB_COUNT + MAX_SHIFT * HALF_COUNT];
+        long count = 0; // Number of samples
+        long max = 0; // Largest sample
+        
+        void record(long value) {
+            value = Math.max(0, value);
+            counts[indexOf(value)]++;
+            count++;
+            max = Math.max(max, value);
+        }
+        
+        // Bucket index - values below 128 are exact, above that each doubling gets 64 buckets
+        static int indexOf(long value) {
+            if (value < SUB_COUNT) {
+                return (int) value;
+            }
+            int shift = Math.min(MAX_SHIFT, 64 - Long.numberOfLeadingZeros(value) - SUB_BITS);
+            long sub = Math.min(SUB_COUNT - 1, value >>> shift); // Always in [64, 128)
+            return SUB_COUNT + (shift - 1) * HALF_COUNT + (int) (sub - HALF_COUNT);
+        }
+        
+        // Highest value that lands in a bucket
+        static long highestValueAt(int index) {
+            if (index < SUB_COUNT) {
+                return index;
+            }
+            int k = index - SUB_COUNT;
+            int shift = k / HALF_COUNT + 1;
+            long sub = k % HALF_COUNT + HALF_COUNT;
+            return ((sub + 1) << shift) - 1;
+        }
+        
+        // Value at or below which the given percentage of samples fall
+        long percentile(double percent) {
+            if (count == 0) {
+                return 0;
+            }
+            long target = Math.max(1, (long) Math.ceil(count * percent / 100.0));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= target) {
+                    return Math.min(max, highestValueAt(i));
+                }
+            }
+            return max;
+        }
+        
+        long count() { return count; }
+        long max() { return max; }
+        
+        void reset() {
+            java.util.Arrays.fill(counts, 0);
+            count = 0;
+            max = 0;
+        }
+    }
+    
+    // JFR event with one frame's phase timings - visible in JDK Mission Control when recording
+    @jdk.jfr.Name("SpaceInvaders.Frame")
+    @jdk.jfr.Label("Space Invaders Frame")
+    @jdk.jfr.Category("Space Invaders")
+    static class FrameEvent extends jdk.jfr.Event {
+        @jdk.jfr.Label("Update") @jdk.jfr.Timespan long updateNanos;
+        @jdk.jfr.Label("Collision") @jdk.jfr.Timespan long collisionNanos;
+        @jdk.jfr.Label("Render") @jdk.jfr.Timespan long renderNanos;
+        @jdk.jfr.Label("Present") @jdk.jfr.Timespan long presentNanos;
+        @jdk.jfr.Label("Invaders") int invaders;
+        @jdk.jfr.Label("Projectiles") int projectiles;
+    }
+    
+    // Active rendering mode - a Canvas that owns its own game loop thread and presents
+    // frames through a BufferStrategy instead of waiting for Swing to repaint
+    static class GameCanvas extends Canvas implements KeyListener, Runnable {
+        static final long TICK_NANOS = 16_000_000L; // One game update every 16ms, same as the Swing timer
+        static final int MAX_CATCH_UP = 5; // Most updates run in a row before dropping time
+        
+        final SpaceInvaders game; // Game state and drawing code
+        final boolean paced; // Wait for the display's next refresh before drawing again (like vsync)
+        volatile boolean running = true; // Cleared to stop the loop thread
+        private long frameNanos = TICK_NANOS; // Time between display refreshes (set in start())
+        private volatile long pendingInputTime = 0; // When the oldest unshown key event arrived (0 = none)
+        private long latencyTotal = 0; // Sum of input-to-present times this second
+        private int latencyCount = 0; // Number of inputs measured this second
+        
+        GameCanvas(SpaceInvaders game, boolean paced) {
+            this.game = game;
+            this.paced = paced;
+            setPreferredSize(new Dimension(WIDTH, HEIGHT)); // Same size as the panel
+            setBackground(BACKGROUND_COLOR);
+            setIgnoreRepaint(true); // We draw ourselves, AWT should not
+            setFocusable(true);
+            addKeyListener(this);
+        }
+        
+        // Create the back buffers and start the loop - call after the window is visible
+        void start() {
+            createBufferStrategy(3); // Triple buffering, AWT falls back to double buffering if needed
+            int hz = getGraphicsConfiguration().getDevice().getDisplayMode().getRefreshRate();
+            frameNanos = 1_000_000_000L / (hz > 0 ? hz : 60); // Draw at the monitor's rate (60Hz if unknown)
+            Thread loop = new Thread(this, "SpaceInvaders game loop");
+            loop.setDaemon(true); // Don't keep the program alive after the window closes
+            loop.start();
+        }
+        
+        // Game loop - fixed rate updates, then one interpolated frame presented per pass
+        @Override
+        public void run() {
+            BufferStrategy strategy = getBufferStrategy();
+            long nextTick = System.nanoTime(); // When the next update is due
+            long nextFrame = nextTick; // When the next refresh is due (paced only)
+            long frames = 0, secondStart = System.nanoTime(); // Frame counter for the title bar
+            
+            while (running) {
+                long now = System.nanoTime();
+                int updates = 0;
+                while (now >= nextTick && updates < MAX_CATCH_UP) { // Catch up on missed updates
+                    synchronized (game) { // Don't update while a frame is being drawn
+                        game.updateGame(nextTick); // Keys pressed before this tick was due, no later
+                    }
+                    nextTick += TICK_NANOS;
+                    updates++;
+                }
+                if (updates == MAX_CATCH_UP) { // Too far behind (e.g. after a stall) - skip ahead
+                    nextTick = now + TICK_NANOS;
+                }
+                
+                // Blend from the previous tick to the latest one by how far we are into the current tick
+                long sinceTick = System.nanoTime() - (nextTick - TICK_NANOS);
+                float alpha = Math.max(0f, Math.min(1f, sinceTick / (float) TICK_NANOS));
+                long inputTime = pendingInputTime; // Inputs up to here are in this frame
+                presentFrame(strategy, alpha);
+                if (inputTime != 0) { // Measure how long the input took to reach the screen
+                    latencyTotal += System.nanoTime() - inputTime;
+                    latencyCount++;
+                    pendingInputTime = 0;
+                }
+                
+                frames++;
+                if (System.nanoTime() - secondStart >= 1_000_000_000L) { // Report once per second
+                    showStats(frames);
+                    frames = 0;
+                    secondStart = System.nanoTime();
+                }
+                
+                if (paced) { // Sleep until the next refresh is due
+                    nextFrame += frameNanos;
+                    long wait = nextFrame - System.nanoTime();
+                    if (wait <= 0) { // Missed a refresh - start counting again from now
+                        nextFrame = System.nanoTime();
+                    } else {
+                        java.util.concurrent.locks.LockSupport.parkNanos(wait);
+                    }
+                } else {
+                    Thread.yield(); // Draw again straight away
+                }
+            }
+        }
+        
+        // Draw into the back buffer and flip it, redrawing if the buffer contents were lost
+        private void presentFrame(BufferStrategy strategy, float alpha) {
+            do {
+                do {
+                    Graphics g = strategy.getDrawGraphics(); // No clearing - the starfield covers every pixel
+                    synchronized (game) {
+                        game.render(g, alpha);
+                    }
+                    g.dispose();
+                } while (strategy.contentsRestored());
+                long presentStart = System.nanoTime();
+                strategy.show(); // Flip (or blit) the finished frame to the screen
+                game.stats.record(FrameStats.PRESENT, System.nanoTime() - presentStart);
+            } while (strategy.contentsLost());
+            Toolkit.getDefaultToolkit().sync(); // Flush the window system so the frame shows now
+        }
+        
+        // Show frame rate and average input latency in the window title
+        private void showStats(long frames) {
+            String latency = latencyCount == 0 ? "-" : String.format("%.1f ms", latencyTotal / 1e6 / latencyCount);
+            String title = "Space Invaders - " + frames + " fps, input latency " + latency;
+            latencyTotal = 0;
+            latencyCount = 0;
+            SwingUtilities.invokeLater(() -> {
+                Window window = SwingUtilities.getWindowAncestor(this);
+                if (window instanceof Frame) {
+                    ((Frame) window).setTitle(title);
+                }
+            });
+        }
+        
+        // Forward keys to the game's queue (no locking), noting when they arrived for the latency figure
+        @Override
+        public void keyPressed(KeyEvent e) {
+            if (pendingInputTime == 0) {
+                pendingInputTime = System.nanoTime();
+            }
+            game.keyPressed(e);
+        }
+        
+        @Override
+        public void keyReleased(KeyEvent e) {
+            game.keyReleased(e);
+        }
+        
+        @Override
+        public void keyTyped(KeyEvent e) {}
+    }
+    
+    // Lock-free single-producer/single-consumer ring buffer of timestamped key events. The event
+    // thread is the only writer of tail and the game loop the only writer of head; each side
+    // fills or reads its slot before publishing the new index through the volatile write, which
+    // is all the ordering two threads need - no locks, no allocation per event.
+    static class InputQueue {
+        private final long[] times; // System.nanoTime() of each event
+        private final int[] events; // Input bit, plus KEY_RELEASED when the key went up
+        private final int mask; // Capacity - 1 (capacity is a power of two)
+        private volatile long head = 0; // Next event to read (written by the game loop)
+        private volatile long tail = 0; // Next free slot (written by the event thread)
+        int dropped = 0; // Events lost because the game stopped draining the queue
+        
+        InputQueue(int capacity) {
+            int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1; // Round up to a power of two
+            times = new long[size];
+            events = new int[size];
+            mask = size - 1;
+        }
+        
+        // Producer side - add an event, or drop it if the queue is full
+        boolean offer(long time, int event) {
+            long t = tail;
+            if (t - head == events.length) { // Full - the game hasn't run for a long time
+                dropped++;
+                return false;
+            }
+            int slot = (int) t & mask;
+            times[slot] = time;
+            events[slot] = event;
+            tail = t + 1; // Publish - the slot writes above become visible with it
+            return true;
+        }
+        
+        // Consumer side - take the oldest event if it happened at or before deadline, else -1
+        int poll(long deadline) {
+            long h = head;
+            if (h == tail) return -1; // Empty
+            int slot = (int) h & mask;
+            if (times[slot] - deadline > 0) return -1; // Belongs to a later tick
+            int event = events[slot];
+            head = h + 1; // Hand the slot back to the producer
+            return event;
+        }
+    }
+    
+    // Gym-style reinforcement learning environment over a headless game. reset() starts an episode
+    // and step(action) advances one tick; both write the observation into the same float[]
+    // (never a new one), so an agent loop allocates nothing. Actions are the six useful key
+    // combinations; the reward is the score gained during the step.
+    static class Env {
+        static final int ACTIONS = 6; // Noop, left, right, fire, left+fire, right+fire
+        private static final int[] ACTION_INPUT = {0, INPUT_LEFT, INPUT_RIGHT, INPUT_FIRE,
+            INPUT_LEFT | INPUT_FIRE, INPUT_RIGHT | INPUT_FIRE};
+        
+        // Observation layout - every value scaled to roughly 0..1
+        static final int OBS_INVADERS = 20; // Slots for invaders (a normal wave never has more)
+        static final int OBS_SHOTS = 8; // Slots for enemy bullets and boss fireballs
+        static final int OBS_SIZE = 9 + OBS_INVADERS * 4 + OBS_SHOTS * 4;
+        // [0] player x  [1] lives  [2] wave  [3] can shoot  [4] own lasers in flight
+        // [5] boss present  [6] boss x  [7] boss y  [8] boss health
+        // then per invader: present, x, y, health - then per hostile shot: present, x, y, speed
+        
+        final SpaceInvaders game;
+        final float[] observation; // Written by reset() and step()
+        final int offset; // Where this environment's observation starts in the array
+        final java.nio.FloatBuffer buffer; // The same observation as a FloatBuffer view
+        
+        Env(long seed) {
+            this(seed, new float[OBS_SIZE], 0);
+        }
+        
+        // Environment writing its observation into a shared array (used by VecEnv)
+        Env(long seed, float[] observation, int offset) {
+            this.game = new SpaceInvaders(false, seed);
+            this.game.particles = new Particles(0); // Nobody watches - skip the cosmetics
+            this.observation = observation;
+            this.offset = offset;
+            this.buffer = java.nio.FloatBuffer.wrap(observation, offset, OBS_SIZE).slice();
+            observe();
+        }
+        
+        // Start a new episode
+        float[] reset(long seed) {
+            game.reseed(seed);
+            observe();
+            return observation;
+        }
+        
+        // Play one tick with the given action and return the reward
+        float step(int action) {
+            int scoreBefore = game.score;
+            game.step(ACTION_INPUT[action]);
+            observe();
+            return game.score - scoreBefore;
+        }
+        
+        boolean done() { return game.gameOver; } // Episode over (out of lives)
+        
+        // Write the game state into the observation slots
+        private void observe() {
+            SpaceInvaders g = game;
+            World world = g.world;
+            float[] o = observation;
+            int p = offset;
+            java.util.Arrays.fill(o, p, p + OBS_SIZE, 0f); // Empty slots read as zero
+            o[p] = g.playerX / (float) WIDTH;
+            o[p + 1] = g.lives / 10f;
+            o[p + 2] = g.wave / 10f;
+            o[p + 3] = g.canShoot ? 1f : 0f;
+            o[p + 4] = world.count(PLAYER_SHOT) / 10f;
+            int invaders = p + 9, invadersEnd = invaders + OBS_INVADERS * 4;
+            int shots = invadersEnd, shotsEnd = shots + OBS_SHOTS * 4;
+            for (int i = 0; i < world.count; i++) {
+                if (world.dead[i]) continue;
+                switch (world.kind[i]) {
+                    case BOSS:
+                        o[p + 5] = 1f;
+                        o[p + 6] = world.x[i] / (float) WIDTH;
+                        o[p + 7] = world.y[i] / (float) HEIGHT;
+                        o[p + 8] = world.health[i] / 10f;
+                        break;
+                    case INVADER:
+                        if (invaders < invadersEnd) {
+                            o[invaders++] = 1f;
+                            o[invaders++] = world.x[i] / (float) WIDTH;
+                            o[invaders++] = world.y[i] / (float) HEIGHT;
+                            o[invaders++] = world.health[i] / 10f;
+                        }
+                        break;
+                    case ENEMY_SHOT:
+                    case BOSS_SHOT:
+                        if (shots < shotsEnd) {
+                            o[shots++] = 1f;
+                            o[shots++] = world.x[i] / (float) WIDTH;
+                            o[shots++] = world.y[i] / (float) HEIGHT;
+                            o[shots++] = world.vy[i] / 10f;
+                        }
+                        break;
+                }
+            }
+        }
+    }
+    
+    // A fixed set of threads that run one job at a time in slices: the calling thread does slice 0,
+    // the workers do the rest, and run() returns once every slice is done. Starting a job is one
+    // volatile generation bump and waiting is one atomic counter, so nothing is allocated per job.
+    // Workers spin briefly between jobs (the next one usually comes right away), then park.
+    static class WorkerPool {
+        private final Thread[] workers; // Slices 1.. (the calling thread does slice 0)
+        private final java.util.concurrent.atomic.AtomicInteger pending = new java.util.concurrent.atomic.AtomicInteger();
+        private java.util.function.IntConsumer job; // Current job, published by the generation bump
+        private volatile int generation = 0; // Bumped once per job to wake the workers
+        private volatile boolean closed = false;
+        
+        WorkerPool(int threads, String name) {
+            workers = new Thread[Math.max(1, threads) - 1];
+            for (int w = 0; w < workers.length; w++) {
+                int slice = w + 1;
+                workers[w] = new Thread(() -> work(slice), name + " " + slice);
+                workers[w].setDaemon(true); // Don't keep the program alive
+                workers[w].start();
+            }
+        }
+        
+        int size() { return workers.length + 1; } // Number of slices, the calling thread included
+        
+        // First item of a slice when count items are shared out evenly
+        int sliceStart(int count, int slice) {
+            return (int) ((long) count * slice / size());
+        }
+        
+        // Run job(slice) for every slice at once and wait for all of them
+        void run(java.util.function.IntConsumer job) {
+            this.job = job;
+            pending.set(workers.length);
+            generation++; // Publishes the job and whatever the caller wrote before it
+            for (Thread worker : workers) {
+                java.util.concurrent.locks.LockSupport.unpark(worker);
+            }
+            job.accept(0);
+            int spins = 0;
+            while (pending.get() != 0) { // Workers usually finish within microseconds of each other
+                if (++spins < 10_000) {
+                    Thread.onSpinWait();
+                } else {
+                    Thread.yield(); // More threads than cores - let the workers have this one
+                }
+            }
+        }
+        
+        // Stop the worker threads
+        void close() {
+            closed = true;
+            for (Thread worker : workers) {
+                java.util.concurrent.locks.LockSupport.unpark(worker);
+            }
+        }
+        
+        // Worker loop - spin briefly for the next job, then park
+        private void work(int slice) {
+            int seen = 0;
+            while (true) {
+                int spins = 0;
+                while (generation == seen) {
+                    if (closed) return;
+                    if (++spins < 10_000) {
+                        Thread.onSpinWait();
+                    } else {
+                        java.util.concurrent.locks.LockSupport.park(this);
+                    }
+                }
+                seen = generation;
+                try {
+                    job.accept(slice);
+                } finally {
+                    pending.decrementAndGet(); // Publishes this slice's results to run()
+                }
+            }
+        }
+    }
+    
+    // N independent environments stepped together across all cores. The caller fills actions[],
+    // calls step(), and reads observations[], rewards[] and dones[] - all allocated once. Each
+    // worker thread owns a fixed slice of environments, so nothing is allocated per step.
+    // Finished episodes restart at once with a new seed (dones[i] says it happened).
+    static class VecEnv {
+        final int n; // Number of environments
+        final int[] actions; // Filled by the caller before each step()
+        final float[] observations; // n * Env.OBS_SIZE, environment i at i * Env.OBS_SIZE
+        final float[] rewards; // Reward of the last step per environment
+        final boolean[] dones; // Whether the last step ended (and restarted) the episode
+        private final Env[] envs;
+        private final long seed; // Base seed - environment i plays seeds seed + i, seed + i + n, ...
+        private final long[] episodes; // Episodes finished per environment
+        final WorkerPool pool;
+        private final java.util.function.IntConsumer stepTask = this::stepSlice; // Made once - run() takes no garbage
+        
+        VecEnv(int n, long seed) {
+            this(n, seed, Math.min(n, Runtime.getRuntime().availableProcessors()));
+        }
+        
+        VecEnv(int n, long seed, int threads) {
+            this.n = n;
+            this.seed = seed;
+            actions = new int[n];
+            observations = new float[n * Env.OBS_SIZE];
+            rewards = new float[n];
+            dones = new boolean[n];
+            episodes = new long[n];
+            envs = new Env[n];
+            for (int i = 0; i < n; i++) {
+                envs[i] = new Env(seed + i, observations, i * Env.OBS_SIZE);
+            }
+            pool = new WorkerPool(threads, "VecEnv worker");
+        }
+        
+        // Every observation as one FloatBuffer (for handing to native code)
+        java.nio.FloatBuffer buffer() {
+            return java.nio.FloatBuffer.wrap(observations);
+        }
+        
+        // Restart every environment from its first seed
+        void reset() {
+            for (int i = 0; i < n; i++) {
+                episodes[i] = 0;
+                envs[i].reset(seed + i);
+                rewards[i] = 0f;
+                dones[i] = false;
+            }
+        }
+        
+        // Step every environment once with actions[]
+        void step() {
+            pool.run(stepTask);
+        }
+        
+        // Stop the worker threads
+        void close() {
+            pool.close();
+        }
+        
+        // Step the environments in one slice, restarting finished episodes
+        private void stepSlice(int slice) {
+            int end = pool.sliceStart(n, slice + 1);
+            for (int i = pool.sliceStart(n, slice); i < end; i++) {
+                Env env = envs[i];
+                rewards[i] = env.step(actions[i]);
+                dones[i] = env.done();
+                if (dones[i]) {
+                    env.reset(seed + i + (long) n * ++episodes[i]);
+                }
+            }
+        }
+    }
+    
+    // One tick of what a co-op server replicates: the game fields clients draw plus every entity.
+    // Entities are kept in id order - spawn order, which the world never shuffles - so two
+    // states line up in a single merge pass.
+    static class NetState {
+        static final int BOSS_LEVEL = 1, GAME_OVER = 2, POWERFUL = 4; // Bits of flags
+        // Most entities a state replicates, so any delta fits one datagram: the header takes at most
+        // 128 bytes, and an entity at most 37 when added (id, mask, kind, six 5-byte varints) plus
+        // 6 more if the baseline's entity in its place is removed in the same delta
+        static final int MAX_ENTITIES = (NetServer.MAX_PACKET - 128) / (37 + 6);
+        
+        long tick = -1; // Server tick this state was taken at (-1 = empty slot)
+        int score, lives, wave, maxBullets, flags;
+        int playerX, player2X;
+        int count; // Entities
+        int[] id = new int[64], kind = new int[64], x = new int[64], y = new int[64];
+        int[] vx = new int[64], vy = new int[64], health = new int[64], variant = new int[64];
+        
+        // Copy the replicated part of a game
+        void capture(SpaceInvaders game, long tick) {
+            this.tick = tick;
+            score = game.score;
+            lives = game.lives;
+            wave = game.wave;
+            maxBullets = game.MAX_BULLETS;
+            flags = (game.bossLevel ? BOSS_LEVEL : 0) | (game.gameOver ? GAME_OVER : 0) | (game.powerfulRounds ? POWERFUL : 0);
+            playerX = game.playerX;
+            player2X = game.player2X;
+            count = 0;
+            World world = game.world;
+            for (int i = 0; i < world.count && count < MAX_ENTITIES; i++) { // Past the cap (stress tests) the rest isn't sent
+                if (world.dead[i]) continue;
+                int e = add(world.id[i], world.kind[i]);
+                x[e] = world.x[i];
+                y[e] = world.y[i];
+                vx[e] = world.vx[i];
+                vy[e] = world.vy[i];
+                health[e] = world.health[i];
+                variant[e] = world.variant[i];
+            }
+        }
+        
+        // Show this state in a client's copy of the game
+        void applyTo(SpaceInvaders game) {
+            game.score = score;
+            game.lives = lives;
+            game.wave = wave;
+            game.MAX_BULLETS = maxBullets;
+            game.bossLevel = (flags & BOSS_LEVEL) != 0;
+            game.gameOver = (flags & GAME_OVER) != 0;
+            game.powerfulRounds = (flags & POWERFUL) != 0;
+            game.coop = true;
+            game.playerX = playerX;
+            game.player2X = player2X;
+            World world = game.world;
+            world.clear();
+            for (int e = 0; e < count; e++) {
+                int i = world.spawn(kind[e], x[e], y[e], vx[e], vy[e]);
+                world.id[i] = id[e];
+                world.health[i] = health[e];
+                world.variant[i] = variant[e];
+            }
+        }
+        
+        // Append an entity slot, growing the arrays when full
+        int add(int entityId, int entityKind) {
+            if (count == id.length) {
+                int capacity = count * 2;
+                id = java.util.Arrays.copyOf(id, capacity);
+                kind = java.util.Arrays.copyOf(kind, capacity);
+                x = java.util.Arrays.copyOf(x, capacity);
+                y = java.util.Arrays.copyOf(y, capacity);
+                vx = java.util.Arrays.copyOf(vx, capacity);
+                vy = java.util.Arrays.copyOf(vy, capacity);
+                health = java.util.Arrays.copyOf(health, capacity);
+                variant = java.util.Arrays.copyOf(variant, capacity);
+            }
+            int e = count++;
+            id[e] = entityId;
+            kind[e] = entityKind;
+            return e;
+        }
+        
+        // Fingerprint of the replicated state - client and server agree if these match
+        long hash() {
+            long h = tick;
+            h = ((((h * 31 + score) * 31 + lives) * 31 + wave) * 31 + maxBullets) * 31 + flags;
+            h = (h * 31 + playerX) * 31 + player2X;
+            for (int e = 0; e < count; e++) {
+                h = (((h * 31 + id[e]) * 31 + x[e]) * 31 + y[e]) * 31 + health[e];
+                h = ((h * 31 + vx[e]) * 31 + vy[e]) * 31 + variant[e];
+            }
+            return h;
+        }
+        
+        // Entity change bits in a delta - which fields differ from the baseline's prediction
+        static final int CHANGED_X = 1, CHANGED_Y = 2, CHANGED_VX = 4, CHANGED_VY = 8;
+        static final int CHANGED_HEALTH = 16, CHANGED_VARIANT = 32, ADDED = 64, REMOVED = 128;
+        
+        // Write this state as changes from base (null = everything). An entity in both is sent only
+        // if it differs from where base says it would be by now (base position + velocity * ticks),
+        // and then only the fields that differ, as small zigzag varints - invaders marching and
+        // bullets flying in a straight line cost nothing until they turn, get hit or vanish.
+        void writeDelta(java.nio.ByteBuffer out, NetState base) {
+            int age = base == null ? 0 : (int) (tick - base.tick);
+            putVarLong(out, tick);
+            putVarLong(out, age); // 0 = full state
+            putVarLong(out, score);
+            putVarLong(out, lives);
+            putVarLong(out, wave);
+            putVarLong(out, maxBullets);
+            putVarLong(out, flags);
+            putVarLong(out, zigzag(playerX));
+            putVarLong(out, zigzag(player2X));
+            int countAt = out.position();
+            out.putInt(0); // Number of entries, filled in below
+            int entries = 0, lastId = -1;
+            int b = 0, baseCount = base == null ? 0 : base.count;
+            int e = 0;
+            while (e < count || b < baseCount) {
+                int current = e < count ? id[e] : Integer.MAX_VALUE;
+                int previous = b < baseCount ? base.id[b] : Integer.MAX_VALUE;
+                if (previous < current) { // Gone since the baseline
+                    putVarLong(out, previous - lastId);
+                    out.put((byte) REMOVED);
+                    lastId = previous;
+                    entries++;
+                    b++;
+                    continue;
+                }
+                int px = 0, py = 0, pvx = 0, pvy = 0, phealth = 0, pvariant = 0, mask = ADDED;
+                if (previous == current) { // In both - compare with the prediction
+                    px = base.x[b] + base.vx[b] * age;
+                    py = base.y[b] + base.vy[b] * age;
+                    pvx = base.vx[b];
+                    pvy = base.vy[b];
+                    phealth = base.health[b];
+                    pvariant = base.variant[b];
+                    mask = 0;
+                    b++;
+                }
+                mask |= (x[e] != px ? CHANGED_X : 0) | (y[e] != py ? CHANGED_Y : 0)
+                    | (vx[e] != pvx ? CHANGED_VX : 0) | (vy[e] != pvy ? CHANGED_VY : 0)
+                    | (health[e] != phealth ? CHANGED_HEALTH : 0) | (variant[e] != pvariant ? CHANGED_VARIANT : 0);
+                if (mask != 0) {
+                    putVarLong(out, current - lastId);
+                    out.put((byte) mask);
+                    if ((mask & ADDED) != 0) out.put((byte) kind[e]);
+                    if ((mask & CHANGED_X) != 0) putVarLong(out, zigzag(x[e] - px));
+                    if ((mask & CHANGED_Y) != 0) putVarLong(out, zigzag(y[e] - py));
+                    if ((mask & CHANGED_VX) != 0) putVarLong(out, zigzag(vx[e] - pvx));
+                    if ((mask & CHANGED_VY) != 0) putVarLong(out, zigzag(vy[e] - pvy));
+                    if ((mask & CHANGED_HEALTH) != 0) putVarLong(out, zigzag(health[e] - phealth));
+                    if ((mask & CHANGED_VARIANT) != 0) putVarLong(out, zigzag(variant[e] - pvariant));
+                    lastId = current;
+                    entries++;
+                }
+                e++;
+            }
+            out.putInt(countAt, entries);
+        }
+        
+        // Tick and baseline age at the start of a delta, without consuming it
+        static long peekTick(java.nio.ByteBuffer in) {
+            return getVarLong(in.duplicate());
+        }
+        
+        static long peekBaseTick(java.nio.ByteBuffer in) {
+            java.nio.ByteBuffer copy = in.duplicate();
+            long deltaTick = getVarLong(copy);
+            long age = getVarLong(copy);
+            return age == 0 ? -1 : deltaTick - age;
+        }
+        
+        // Rebuild a state from a delta written against base - false if the delta doesn't fit it.
+        // A truncated or garbled packet throws BufferUnderflowException or IndexOutOfBoundsException
+        boolean readDelta(java.nio.ByteBuffer in, NetState base) {
+            tick = getVarLong(in);
+            int age = (int) getVarLong(in);
+            if (age != 0 && (base == null || base.tick != tick - age)) return false; // Wrong baseline
+            if (age == 0) base = null;
+            score = (int) getVarLong(in);
+            lives = (int) getVarLong(in);
+            wave = (int) getVarLong(in);
+            maxBullets = (int) getVarLong(in);
+            flags = (int) getVarLong(in);
+            playerX = unzigzag(getVarLong(in));
+            player2X = unzigzag(getVarLong(in));
+            int entries = in.getInt();
+            count = 0;
+            int b = 0, baseCount = base == null ? 0 : base.count, lastId = -1;
+            for (int n = 0; n < entries; n++) {
+                int entryId = lastId + (int) getVarLong(in);
+                lastId = entryId;
+                int mask = in.get() & 0xFF;
+                while (b < baseCount && base.id[b] < entryId) { // Untouched - exactly where predicted
+                    copyPredicted(base, b++, age);
+                }
+                if ((mask & REMOVED) != 0) {
+                    if (b == baseCount || base.id[b] != entryId) return false;
+                    b++;
+                    continue;
+                }
+                int e;
+                int px = 0, py = 0, pvx = 0, pvy = 0, phealth = 0, pvariant = 0;
+                if ((mask & ADDED) != 0) {
+                    int entryKind = in.get();
+                    if (entryKind < 0 || entryKind >= KIND_COUNT) return false;
+                    e = add(entryId, entryKind);
+                } else {
+                    if (b == baseCount || base.id[b] != entryId) return false;
+                    e = copyPredicted(base, b++, age);
+                    px = x[e]; py = y[e]; pvx = vx[e]; pvy = vy[e]; phealth = health[e]; pvariant = variant[e];
+                }
+                x[e] = px + ((mask & CHANGED_X) != 0 ? unzigzag(getVarLong(in)) : 0);
+                y[e] = py + ((mask & CHANGED_Y) != 0 ? unzigzag(getVarLong(in)) : 0);
+                vx[e] = pvx + ((mask & CHANGED_VX) != 0 ? unzigzag(getVarLong(in)) : 0);
+                vy[e] = pvy + ((mask & CHANGED_VY) != 0 ? unzigzag(getVarLong(in)) : 0);
+                health[e] = phealth + ((mask & CHANGED_HEALTH) != 0 ? unzigzag(getVarLong(in)) : 0);
+                variant[e] = pvariant + ((mask & CHANGED_VARIANT) != 0 ? unzigzag(getVarLong(in)) : 0);
+            }
+            while (b < baseCount) {
+                copyPredicted(base, b++, age);
+            }
+            return true;
+        }
+        
+        // Append base's entity moved on by age ticks
+        private int copyPredicted(NetState base, int b, int age) {
+            int e = add(base.id[b], base.kind[b]);
+            x[e] = base.x[b] + base.vx[b] * age;
+            y[e] = base.y[b] + base.vy[b] * age;
+            vx[e] = base.vx[b];
+            vy[e] = base.vy[b];
+            health[e] = base.health[b];
+            variant[e] = base.variant[b];
+            return e;
+        }
+        
+        static long zigzag(long value) { return (value << 1) ^ (value >> 63); } // Small negatives stay small
+        static int unzigzag(long value) { return (int) ((value >>> 1) ^ -(value & 1)); }
+        
+        static void putVarLong(java.nio.ByteBuffer out, long value) {
+            while ((value & ~0x7FL) != 0) { // 7 bits per byte, high bit means more follow
+                out.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            out.put((byte) value);
+        }
+        
+        static long getVarLong(java.nio.ByteBuffer in) {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = in.get();
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) return value;
+            }
+        }
+    }
+    
+    // UDP sender that can pretend to be a bad network - each packet is dropped with the given
+    // chance or held back for the latency (plus up to a quarter of it again as jitter, so packets
+    // can arrive out of order). With no latency or loss it just sends.
+    static class LossyLink {
+        final java.nio.channels.DatagramChannel channel;
+        final int latencyMillis, lossPercent;
+        private final Random random = new Random();
+        private final java.util.PriorityQueue<Delayed> queue = new java.util.PriorityQueue<>();
+        long sent = 0, dropped = 0, bytes = 0; // Totals for reports
+        
+        LossyLink(java.nio.channels.DatagramChannel channel, int latencyMillis, int lossPercent) {
+            this.channel = channel;
+            this.latencyMillis = latencyMillis;
+            this.lossPercent = lossPercent;
+        }
+        
+        // Send the packet between position and limit
+        void send(java.nio.ByteBuffer packet, java.net.SocketAddress to) throws java.io.IOException {
+            sent++;
+            bytes += packet.remaining();
+            if (random.nextInt(100) < lossPercent) { // Lost on the way
+                dropped++;
+                return;
+            }
+            if (latencyMillis == 0) {
+                channel.send(packet, to);
+                return;
+            }
+            byte[] data = new byte[packet.remaining()];
+            packet.get(data);
+            long delay = latencyMillis * 1_000_000L + (long) (random.nextDouble() * latencyMillis * 250_000L);
+            queue.add(new Delayed(System.nanoTime() + delay, data, to));
+        }
+        
+        // Send every held-back packet whose time has come
+        void flush() throws java.io.IOException {
+            long now = System.nanoTime();
+            while (!queue.isEmpty() && queue.peek().due <= now) {
+                Delayed packet = queue.poll();
+                channel.send(java.nio.ByteBuffer.wrap(packet.data), packet.to);
+            }
+        }
+        
+        private static class Delayed implements Comparable<Delayed> {
+            final long due;
+            final byte[] data;
+            final java.net.SocketAddress to;
+            
+            Delayed(long due, byte[] data, java.net.SocketAddress to) {
+                this.due = due;
+                this.data = data;
+                this.to = to;
+            }
+            
+            @Override
+            public int compareTo(Delayed other) {
+                return Long.compare(due, other.due);
+            }
+        }
+    }
+    
+    // Authoritative co-op game. Two clients send their keys over UDP; every tick the server runs
+    // the game with both players' input and sends each client the state as a delta against the
+    // last state that client confirmed. A client that missed too much gets a full state.
+    static class NetServer implements Runnable {
+        static final int HISTORY = 64; // Ticks of state kept as baselines (about a second)
+        static final int MAX_PACKET = 65_507; // Largest UDP payload
+        static final byte STATE = 1, INPUT = 2; // Packet types
+        
+        final SpaceInvaders game;
+        final java.nio.channels.DatagramChannel channel;
+        final LossyLink link;
+        final NetState[] history = new NetState[HISTORY]; // State of tick t at t % HISTORY
+        final java.net.SocketAddress[] clients = new java.net.SocketAddress[2]; // Player 1, player 2
+        private final int[][] inputs = new int[2][HISTORY]; // Received input by sequence number
+        private final long[] receivedSeq = new long[2]; // Newest input sequence received
+        private final long[] appliedSeq = new long[2]; // Input sequence used in the latest tick
+        private final int[] currentInput = new int[2]; // Keys held by each player right now
+        private final long[] ackedTick = {-1, -1}; // Newest state each client has confirmed
+        long malformed = 0; // Packets dropped because they didn't parse
+        private final java.nio.ByteBuffer in = java.nio.ByteBuffer.allocate(MAX_PACKET);
+        private final java.nio.ByteBuffer out = java.nio.ByteBuffer.allocate(MAX_PACKET);
+        long tick = 0; // Server ticks so far
+        long encodeNanos = 0; // Time spent writing and sending deltas
+        volatile boolean running = true;
+        
+        NetServer(int port, long seed, int latencyMillis, int lossPercent) throws java.io.IOException {
+            game = new SpaceInvaders(false, seed);
+            game.particles = new Particles(0); // Clients draw, the server doesn't
+            game.startCoop();
+            channel = java.nio.channels.DatagramChannel.open();
+            channel.bind(new java.net.InetSocketAddress(java.net.InetAddress.getLoopbackAddress(), port));
+            channel.configureBlocking(false);
+            link = new LossyLink(channel, latencyMillis, lossPercent);
+            for (int i = 0; i < HISTORY; i++) {
+                history[i] = new NetState();
+            }
+        }
+        
+        int port() throws java.io.IOException {
+            return ((java.net.InetSocketAddress) channel.getLocalAddress()).getPort();
+        }
+        
+        // Run ticks at the game's rate until stopped
+        @Override
+        public void run() {
+            long nextTick = System.nanoTime();
+            try {
+                while (running) {
+                    tick();
+                    nextTick += GameCanvas.TICK_NANOS;
+                    long wait = nextTick - System.nanoTime();
+                    if (wait > 0) {
+                        java.util.concurrent.locks.LockSupport.parkNanos(wait);
+                    } else {
+                        nextTick = System.nanoTime(); // Fell behind - don't try to catch up
+                    }
+                }
+            } catch (java.io.IOException e) {
+                System.err.println("Co-op server stopped: " + e.getMessage());
+            }
+        }
+        
+        // One server tick - read input, step the game, send every client its delta
+        void tick() throws java.io.IOException {
+            receiveInputs();
+            for (int slot = 0; slot < 2; slot++) { // Use each player's next input, or keep the last one
+                if (appliedSeq[slot] < receivedSeq[slot]) {
+                    if (receivedSeq[slot] - appliedSeq[slot] > 8) { // Far behind (after loss) - skip ahead
+                        appliedSeq[slot] = receivedSeq[slot] - 1;
+                    }
+                    appliedSeq[slot]++;
+                    currentInput[slot] = inputs[slot][(int) (appliedSeq[slot] % HISTORY)];
+                }
+            }
+            int input = (currentInput[0] & ~INPUT_RESTART) | (currentInput[1] & ~INPUT_RESTART) << PLAYER2_SHIFT
+                | ((currentInput[0] | currentInput[1]) & INPUT_RESTART); // Either player can restart
+            game.step(input);
+            tick++;
+            NetState state = history[(int) (tick % HISTORY)];
+            state.capture(game, tick);
+            
+            long encodeStart = System.nanoTime();
+            for (int slot = 0; slot < 2; slot++) {
+                if (clients[slot] == null) continue;
+                NetState base = null;
+                long acked = ackedTick[slot];
+                if (acked > 0 && tick - acked < HISTORY && history[(int) (acked % HISTORY)].tick == acked) {
+                    base = history[(int) (acked % HISTORY)];
+                }
+                out.clear();
+                out.put(STATE).put((byte) slot);
+                NetState.putVarLong(out, appliedSeq[slot]); // Lets the client replay newer keys on top
+                state.writeDelta(out, base);
+                out.flip();
+                link.send(out, clients[slot]);
+            }
+            encodeNanos += System.nanoTime() - encodeStart;
+            link.flush();
+        }
+        
+        // Input packet: type, newest state tick the client holds, sequence, count, then that many
+        // inputs newest first - repeating recent inputs so a lost packet loses nothing
+        private void receiveInputs() throws java.io.IOException {
+            in.clear();
+            java.net.SocketAddress from;
+            while ((from = channel.receive(in)) != null) {
+                in.flip();
+                try {
+                    readInput(from);
+                } catch (java.nio.BufferUnderflowException | IndexOutOfBoundsException e) {
+                    malformed++; // Truncated or garbled - drop just this packet
+                }
+                in.clear();
+            }
+        }
+        
+        // Apply the input packet waiting in the in buffer
+        private void readInput(java.net.SocketAddress from) {
+            if (in.get() != INPUT) return;
+            int slot = slotOf(from);
+            if (slot < 0) return;
+            long acked = NetState.getVarLong(in);
+            long seq = NetState.getVarLong(in);
+            int n = in.get();
+            if (n < 1 || seq < n) return; // Nonsense counts
+            int first = in.get(in.position() + n - 1); // Checks every input is in the packet
+            ackedTick[slot] = Math.max(ackedTick[slot], acked);
+            for (int k = n - 1; k >= 0; k--) { // Oldest first
+                long s = seq - k;
+                int value = in.get(in.position() + k);
+                if (s > receivedSeq[slot]) {
+                    inputs[slot][(int) (s % HISTORY)] = value;
+                }
+            }
+            for (long s = Math.max(receivedSeq[slot] + 1, seq - n - HISTORY + 1); s <= seq - n; s++) { // Lost beyond the repeats
+                inputs[slot][(int) (s % HISTORY)] = first;
+            }
+            receivedSeq[slot] = Math.max(receivedSeq[slot], seq);
+        }
+        
+        // Player slot for an address, taking a free one for a new client (-1 when full)
+        private int slotOf(java.net.SocketAddress address) {
+            for (int slot = 0; slot < 2; slot++) {
+                if (address.equals(clients[slot])) return slot;
+            }
+            for (int slot = 0; slot < 2; slot++) {
+                if (clients[slot] == null) {
+                    clients[slot] = address;
+                    System.out.println("Player " + (slot + 1) + " joined from " + address);
+                    return slot;
+                }
+            }
+            return -1;
+        }
+    }
+    
+    // Client side of co-op. Each tick it sends its keys, decodes any states that arrived and
+    // shows the newest in its own copy of the game. Its own ship is predicted - the server's
+    // position with every key the server hasn't used yet replayed on top - so movement responds
+    // at once; everything else carries on moving between states.
+    static class NetClient {
+        static final int HISTORY = NetServer.HISTORY;
+        static final int REPEATS = 8; // Recent inputs repeated in every packet
+        
+        final java.nio.channels.DatagramChannel channel;
+        final LossyLink link;
+        final java.net.SocketAddress server;
+        final NetState[] history = new NetState[HISTORY]; // Received states, baselines for new deltas
+        private final int[] inputs = new int[HISTORY]; // Sent input by sequence number
+        private final java.nio.ByteBuffer in = java.nio.ByteBuffer.allocate(NetServer.MAX_PACKET);
+        private final java.nio.ByteBuffer out = java.nio.ByteBuffer.allocate(64);
+        long seq = 0; // Sequence number of the newest input
+        long ackSeq = 0; // Newest input the server has used
+        long latestTick = 0; // Newest state received
+        int slot = -1; // 0 = player 1, 1 = player 2 (-1 until the server answers)
+        long states = 0, rejected = 0, bytesReceived = 0; // Totals for reports
+        NetState latest; // Newest state (also in history)
+        
+        NetClient(java.net.SocketAddress server, int latencyMillis, int lossPercent) throws java.io.IOException {
+            this.server = server;
+            channel = java.nio.channels.DatagramChannel.open();
+            channel.bind(new java.net.InetSocketAddress(java.net.InetAddress.getLoopbackAddress(), 0));
+            channel.configureBlocking(false);
+            link = new LossyLink(channel, latencyMillis, lossPercent);
+            for (int i = 0; i < HISTORY; i++) {
+                history[i] = new NetState();
+            }
+        }
+        
+        // One client tick with the local keys - runs in place of game.step() on the client
+        void tick(SpaceInvaders view, int input) throws java.io.IOException {
+            seq++;
+            inputs[(int) (seq % HISTORY)] = input;
+            out.clear();
+            out.put(NetServer.INPUT);
+            NetState.putVarLong(out, latestTick);
+            NetState.putVarLong(out, seq);
+            int n = (int) Math.min(REPEATS, seq);
+            out.put((byte) n);
+            for (int k = 0; k < n; k++) { // Newest first
+                out.put((byte) inputs[(int) ((seq - k) % HISTORY)]);
+            }
+            out.flip();
+            link.send(out, server);
+            link.flush();
+            
+            view.world.savePositions(); // For render interpolation
+            view.prevPlayerX = view.playerX;
+            view.prevPlayer2X = view.player2X;
+            view.world.move(); // Carry on moving until told otherwise
+            view.tick++; // Scrolls the starfield
+            view.world.compact();
+            if (++view.animationCounter % 30 == 0) {
+                view.alienAntennaUp = !view.alienAntennaUp;
+            }
+            
+            boolean fresh = receiveStates();
+            if (fresh) {
+                latest.applyTo(view);
+            }
+            if (latest != null) { // Own ship - server position plus the keys it hasn't seen yet
+                int x = slot == 0 ? latest.playerX : latest.player2X;
+                for (long s = Math.max(ackSeq + 1, seq - HISTORY + 1); s <= seq; s++) {
+                    int keys = inputs[(int) (s % HISTORY)];
+                    if ((keys & INPUT_LEFT) != 0 && x > 0) x -= view.playerSpeed;
+                    if ((keys & INPUT_RIGHT) != 0 && x < WIDTH - PLAYER_WIDTH) x += view.playerSpeed;
+                }
+                if (slot == 0) view.playerX = x; else view.player2X = x;
+            }
+        }
+        
+        // Decode every state packet waiting - true if a newer state arrived
+        private boolean receiveStates() throws java.io.IOException {
+            boolean fresh = false;
+            in.clear();
+            while (channel.receive(in) != null) {
+                in.flip();
+                bytesReceived += in.remaining();
+                try {
+                    fresh |= readState();
+                } catch (java.nio.BufferUnderflowException | IndexOutOfBoundsException e) {
+                    rejected++; // Truncated or garbled - drop just this packet
+                }
+                in.clear();
+            }
+            return fresh;
+        }
+        
+        // Decode the state packet waiting in the in buffer - true if it is the newest yet
+        private boolean readState() {
+            if (in.get() != NetServer.STATE) return false;
+            int packetSlot = in.get();
+            long packetAck = NetState.getVarLong(in);
+            long tick = NetState.peekTick(in);
+            if (tick <= latestTick) return false; // Older or repeated states are useless
+            long baseTick = NetState.peekBaseTick(in);
+            NetState base = baseTick < 0 ? null : history[(int) (baseTick % HISTORY)];
+            NetState state = history[(int) (tick % HISTORY)];
+            boolean decoded = false;
+            try {
+                decoded = packetSlot >= 0 && packetSlot <= 1 && state.readDelta(in, base);
+            } finally {
+                if (!decoded) state.tick = -1; // Half-written - not a baseline
+            }
+            if (!decoded) {
+                rejected++;
+                return false;
+            }
+            slot = packetSlot;
+            ackSeq = packetAck;
+            latestTick = tick;
+            latest = state;
+            states++;
+            return true;
+        }
+    }
+    
+    // Compact input log for deterministic replays. The game only needs its seed and the input
+    // bits of every tick, and held keys repeat for many ticks, so the log stores runs of
+    // identical input as varints: (run length << 8 | input bits). An hour of play is 225,000
+    // ticks but usually only a few thousand key changes.
+    static class InputLog {
+        static final int MAGIC = 0x53495250; // "SIRP" - marks a Space Invaders replay file
+        static final int VERSION = 5; // 2 widened the input bits to 8 for co-op, 3 stopped stars using the game's RNG,
+                                      // 4 moved invaders and the boss before they shoot again (as version 1 did),
+                                      // 5 added the stress mode to the header
+        
+        final long seed; // Seed the recorded game started from
+        int stressInvaders = 0, stressShots = 0; // Stress mode the recorded game ran in (0 invaders = normal play)
+        private int inputBits = 8; // Bits of input under each run length
+        long ticks = 0; // Ticks recorded (or in the loaded file)
+        long expectedHash = 0; // State hash at the end of the recording (loaded files only)
+        private byte[] data = new byte[1024]; // Varint-encoded runs
+        private int size = 0; // Bytes used in data
+        private int runInput = -1; // Input of the run being recorded
+        private long runLength = 0; // Ticks in the run being recorded
+        private int readPosition = 0; // Replay cursor into data
+        
+        InputLog(long seed) {
+            this.seed = seed;
+        }
+        
+        // Add one tick of input, extending the current run when nothing changed
+        void record(int input) {
+            ticks++;
+            if (input == runInput) {
+                runLength++;
+                return;
+            }
+            if (runLength > 0) {
+                writeVarLong(runLength << inputBits | runInput);
+            }
+            runInput = input;
+            runLength = 1;
+        }
+        
+        // Input for the next tick when replaying
+        int next() {
+            if (runLength == 0) { // Current run used up - decode the next one
+                long run = readVarLong();
+                runInput = (int) (run & ((1 << inputBits) - 1));
+                runLength = run >>> inputBits;
+            }
+            runLength--;
+            return runInput;
+        }
+        
+        private void writeVarLong(long value) {
+            if (size + 10 > data.length) {
+                data = java.util.Arrays.copyOf(data, data.length * 2);
+            }
+            while ((value & ~0x7FL) != 0) { // 7 bits per byte, high bit means more follow
+                data[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            data[size++] = (byte) value;
+        }
+        
+        private long readVarLong() {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = data[readPosition++];
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) return value;
+            }
+        }
+        
+        // Write header and runs, including the run still being recorded (recording can continue)
+        void save(String path, long finalHash) throws java.io.IOException {
+            int savedSize = size;
+            if (runLength > 0) {
+                writeVarLong(runLength << inputBits | runInput);
+            }
+            try (java.io.DataOutputStream out = new java.io.DataOutputStream(
+                    new java.io.BufferedOutputStream(new java.io.FileOutputStream(path)))) {
+                out.writeInt(MAGIC);
+                out.writeByte(VERSION);
+                out.writeLong(seed);
+                out.writeInt(stressInvaders);
+                out.writeInt(stressShots);
+                out.writeLong(ticks);
+                out.writeLong(finalHash);
+                out.writeInt(size);
+                out.write(data, 0, size);
+            } finally {
+                size = savedSize; // Pending run stays open for further recording
+            }
+        }
+        
+        // Read a replay file written by save
+        static InputLog load(String path) throws java.io.IOException {
+            try (java.io.DataInputStream in = new java.io.DataInputStream(
+                    new java.io.BufferedInputStream(new java.io.FileInputStream(path)))) {
+                int version = in.readInt() == MAGIC ? in.readByte() : -1;
+                if (version < 0) {
+                    throw new java.io.IOException("Not a Space Invaders replay: " + path);
+                }
+                if (version != VERSION) { // Older games played out differently - see VERSION
+                    throw new java.io.IOException("Replay from an older version of the game: " + path);
+                }
+                InputLog log = new InputLog(in.readLong());
+                log.stressInvaders = in.readInt();
+                log.stressShots = in.readInt();
+                log.ticks = in.readLong();
+                log.expectedHash = in.readLong();
+                log.size = in.readInt();
+                log.data = new byte[log.size];
+                in.readFully(log.data);
+                log.runLength = 0; // Start replaying from the first run
+                return log;
+            }
+        }
+        
+        int sizeInBytes() {
+            return size + 41; // Runs plus header
+        }
+    }
+    
+    // Main method - program entry point
+    // Options: --active draws with a BufferStrategy canvas at the display refresh rate, --uncapped (with --active) draws as fast as possible,
+    // --stats-csv <file> writes frame timing percentiles to a CSV file when the game exits,
+    // --seed <n> fixes the random seed, --record <file> saves a replay when the window closes,
+    // --replay <file> re-runs a saved replay without a window as fast as possible,
+    // --save-file <file> is where F5 saves the game and F9 loads it (default spaceinvaders.sav),
+    // --stress <invaders> [--stress-shots <lasers>] plays stress waves, --bench measures ticks/sec as waves grow,
+    // --threads <n> moves and collides worlds of 4096+ entities on n threads (with the game, --bench and --micro-bench),
+    // --micro-bench [--only <name>] times updateGame, checkCollisions, createInvaders and move in ns and bytes per call,
+    // --env-bench [--envs <n>] measures RL environment steps/sec (one Env, then a VecEnv on every core),
+    // --host <port> runs a co-op server (0 = any port) and joins it, --join <port> joins as player 2,
+    // --particles <n> caps live particles (0 turns them off), --particle-bench times 50k particles a frame,
+    // --net-test plays co-op on loopback with two bots and reports bandwidth; --latency <ms> and
+    // --loss <percent> make the loopback network worse for any of the three
+    public static void main(String[] args) {
+        java.util.List<String> options = java.util.Arrays.asList(args);
+        String replayPath = optionValue(args, "--replay");
+        if (replayPath != null) {
+            runReplay(replayPath);
+            return;
+        }
+        String stressText = optionValue(args, "--stress");
+        String stressShotsText = optionValue(args, "--stress-shots");
+        int stressCount = stressText != null ? Integer.parseInt(stressText) : 0;
+        int stressShots = stressShotsText != null ? Integer.parseInt(stressShotsText) : 0;
+        String threadsText = optionValue(args, "--threads");
+        int threads = threadsText != null ? Integer.parseInt(threadsText) : 1;
+        if (options.contains("--bench")) {
+            runBenchmark(stressShotsText != null ? stressShots : -1, threads);
+            return;
+        }
+        if (options.contains("--micro-bench")) {
+            runMicroBenchmarks(optionValue(args, "--only"), threads);
+            return;
+        }
+        String latencyText = optionValue(args, "--latency");
+        String lossText = optionValue(args, "--loss");
+        int latency = latencyText != null ? Integer.parseInt(latencyText) : 0;
+        int loss = lossText != null ? Integer.parseInt(lossText) : 0;
+        if (options.contains("--net-test")) {
+            if (stressCount > NetState.MAX_ENTITIES) { // More can't be sent in one datagram
+                System.out.println("--stress is capped at " + NetState.MAX_ENTITIES + " for the network test");
+            }
+            runNetTest(latency, loss, Math.min(stressCount, NetState.MAX_ENTITIES));
+            return;
+        }
+        String particlesText = optionValue(args, "--particles");
+        int particleBudget = particlesText != null ? Integer.parseInt(particlesText) : Particles.DEFAULT_BUDGET;
+        if (options.contains("--particle-bench")) {
+            runParticleBenchmark(particleBudget);
+            return;
+        }
+        if (options.contains("--env-bench")) {
+            String envsText = optionValue(args, "--envs");
+            runEnvBenchmark(envsText != null ? Integer.parseInt(envsText) : Runtime.getRuntime().availableProcessors() * 16);
+            return;
+        }
+        
+        String seedText = optionValue(args, "--seed");
+        long seed = seedText != null ? Long.parseLong(seedText) : System.nanoTime();
+        boolean active = options.contains("--active");
+        boolean paced = !options.contains("--uncapped");
+        String csvPath = optionValue(args, "--stats-csv");
+        String recordPath = optionValue(args, "--record");
+        String savePath = optionValue(args, "--save-file");
+        String hostText = optionValue(args, "--host");
+        String joinText = optionValue(args, "--join");
+        int joinPort = joinText != null ? Integer.parseInt(joinText) : -1;
+        if ((hostText != null || joinPort >= 0) && (stressCount > 0 || stressShots > 0)) {
+            System.err.println("--stress can't be used with --host or --join - co-op states must fit one datagram");
+            return;
+        }
+        if (hostText != null) { // Run the co-op server here and join it as player 1
+            try {
+                NetServer server = new NetServer(Integer.parseInt(hostText), seed, latency, loss);
+                Thread thread = new Thread(server, "SpaceInvaders co-op server");
+                thread.setDaemon(true);
+                thread.start();
+                joinPort = server.port();
+                System.out.println("Co-op server on port " + joinPort + " - player 2 runs --join " + joinPort);
+            } catch (java.io.IOException e) {
+                System.err.println("Could not start co-op server: " + e.getMessage());
+                return;
+            }
+        }
+        int serverPort = joinPort;
+        
+        // Use SwingUtilities to ensure thread-safe GUI creation
+        SwingUtilities.invokeLater(() -> {
+            JFrame frame = new JFrame("Space Invaders - Enhanced Version"); // Create game window
+            SpaceInvaders game = new SpaceInvaders(!active, seed); // Create game instance (canvas runs its own loop)
+            GameCanvas canvas = active ? new GameCanvas(game, paced) : null; // Only used for active rendering
+            if (stressCount > 0) {
+                game.startStress(stressCount, stressShots);
+            }
+            game.useThreads(threads);
+            writeStatsOnExit(game, csvPath); // Optional frame timing dump
+            if (savePath != null) {
+                game.snapshotPath = savePath; // Where F5 / F9 save and load
+            }
+            if (particleBudget != Particles.DEFAULT_BUDGET) {
+                game.particles = new Particles(particleBudget);
+            }
+            if (serverPort >= 0) { // Co-op client
+                try {
+                    game.net = new NetClient(new java.net.InetSocketAddress(java.net.InetAddress.getLoopbackAddress(), serverPort), latency, loss);
+                    game.world.killKind(INVADER); // The server's invaders arrive with the first state
+                    game.world.compact();
+                } catch (java.io.IOException e) {
+                    System.err.println("Could not join co-op server: " + e.getMessage());
+                }
+            }
+            
+            if (recordPath != null) { // Log every tick and save when the window closes
+                game.recording = new InputLog(seed);
+                game.recording.stressInvaders = game.stressInvaders; // Replays have to start the same stress waves
+                game.recording.stressShots = game.stressShots;
+                frame.addWindowListener(new WindowAdapter() {
+                    @Override
+                    public void windowClosing(WindowEvent e) {
+                        game.saveRecording(recordPath);
+                    }
+                });
+            }
+            
+            frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE); // Close on X button
+            if (active) {
+                frame.setIgnoreRepaint(true); // Canvas presents its own frames
+                frame.getContentPane().add(canvas); // Add canvas to frame
+            } else {
+                frame.getContentPane().add(game); // Add game panel to frame
+            }
+            frame.pack(); // Size frame to fit game panel
+            frame.setLocationRelativeTo(null); // Center window on screen
+            frame.setResizable(false); // Prevent window resizing
+            frame.setVisible(true); // Make window visible
+            if (active) {
+                canvas.start(); // Create buffers (needs a visible window) and start the game loop
+                canvas.requestFocusInWindow(); // Ensure canvas receives keyboard input
+            } else {
+                game.requestFocusInWindow(); // Ensure game receives keyboard input
+            }
+        });
+    }
+    
+    // Value following a command line option, or null if the option isn't there
+    private static String optionValue(String[] args, String name) {
+        for (int i = 0; i + 1 < args.length; i++) {
+            if (args[i].equals(name)) {
+                return args[i + 1];
+            }
+        }
+        return null;
+    }
+    
+    // Ten seconds of co-op on loopback with two bot players - bandwidth of the deltas against full
+    // states, and every state the clients decode checked against the server's
+    private static void runNetTest(int latencyMillis, int lossPercent, int stressCount) {
+        try {
+            NetServer server = new NetServer(0, 1, latencyMillis, lossPercent);
+            if (stressCount > 0) {
+                server.game.startStress(stressCount, 0);
+            }
+            java.net.SocketAddress address = new java.net.InetSocketAddress(java.net.InetAddress.getLoopbackAddress(), server.port());
+            NetClient[] clients = {new NetClient(address, latencyMillis, lossPercent), new NetClient(address, latencyMillis, lossPercent)};
+            SpaceInvaders[] views = {new SpaceInvaders(false, 2), new SpaceInvaders(false, 3)};
+            java.nio.ByteBuffer full = java.nio.ByteBuffer.allocate(1 << 24); // Room for a full state of any size
+            long fullBytes = 0, entities = 0, behind = 0, checked = 0, mismatches = 0;
+            long[] lastChecked = new long[2];
+            long ticks = 10_000 / TICK_MILLIS;
+            long nextTick = System.nanoTime();
+            for (long t = 0; t < ticks; t++) {
+                server.tick();
+                NetState state = server.history[(int) (server.tick % NetServer.HISTORY)];
+                full.clear();
+                state.writeDelta(full, null);
+                fullBytes += full.position();
+                entities += state.count;
+                for (int c = 0; c < 2; c++) {
+                    int input = ((t / 50 + c) % 2 == 0 ? INPUT_LEFT : INPUT_RIGHT) | INPUT_FIRE | INPUT_RESTART; // Sweep and fire
+                    clients[c].tick(views[c], input);
+                    NetState latest = clients[c].latest;
+                    if (latest != null && latest.tick != lastChecked[c]) { // Decoded state must match the original
+                        NetState original = server.history[(int) (latest.tick % NetServer.HISTORY)];
+                        if (original.tick == latest.tick) {
+                            checked++;
+                            if (original.hash() != latest.hash()) mismatches++;
+                        }
+                        lastChecked[c] = latest.tick;
+                    }
+                    behind += server.tick - clients[c].latestTick;
+                }
+                nextTick += GameCanvas.TICK_NANOS;
+                long wait = nextTick - System.nanoTime();
+                if (wait > 0) {
+                    java.util.concurrent.locks.LockSupport.parkNanos(wait);
+                }
+            }
+            LossyLink link = server.link;
+            System.out.printf("Co-op loopback test: %d ticks, %d ms latency, %d%% loss, %d entities on average%n",
+                ticks, latencyMillis, lossPercent, entities / ticks);
+            System.out.printf("server -> clients: %d packets, %d lost, %.0f bytes per packet (full state %.0f bytes, %.1fx smaller)%n",
+                link.sent, link.dropped, link.bytes / (double) link.sent, fullBytes / (double) ticks,
+                fullBytes * 2.0 / link.bytes);
+            System.out.printf("states decoded %d, rejected %d, checked %d, hash mismatches %d%n",
+                clients[0].states + clients[1].states, clients[0].rejected + clients[1].rejected, checked, mismatches);
+            System.out.printf("clients %.1f ticks behind the server on average, encode + send %.1f us per tick%n",
+                behind / (2.0 * ticks), server.encodeNanos / 1e3 / ticks);
+        } catch (java.io.IOException e) {
+            System.err.println("Co-op test failed: " + e.getMessage());
+        }
+    }
+    
+    // Keep 50,000 particles alive (or the budget, if smaller) and time update + draw per frame,
+    // counting garbage collections to show the steady state allocates nothing
+    private static void runParticleBenchmark(int budget) {
+        Particles particles = new Particles(budget);
+        int target = Math.min(50_000, budget);
+        BufferedImage screen = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Graphics g = screen.getGraphics();
+        long[] frameNanos = new long[600];
+        long collectionsBefore = 0;
+        for (int frame = -120; frame < frameNanos.length; frame++) { // First two seconds warm up the JIT
+            long start = System.nanoTime();
+            while (particles.count < target) { // Explosions all over the screen
+                particles.burst((float) (Math.random() * WIDTH), (float) (Math.random() * HEIGHT), 500, 4f,
+                    (int) (Math.random() * (Particles.ENGINE + 1)), 60);
+            }
+            particles.update();
+            particles.draw(g, 0.5f);
+            if (frame == 0) {
+                collectionsBefore = gcCount(); // Start counting from here
+            }
+            if (frame >= 0) {
+                frameNanos[frame] = System.nanoTime() - start;
+            }
+        }
+        long collections = gcCount() - collectionsBefore;
+        java.util.Arrays.sort(frameNanos);
+        long total = 0;
+        for (long nanos : frameNanos) total += nanos;
+        System.out.printf("%d particles: %.2f ms per frame on average, %.2f ms at p99 (16.7 ms budget at 60 fps)%n",
+            target, total / 1e6 / frameNanos.length, frameNanos[frameNanos.length * 99 / 100] / 1e6);
+        System.out.println("garbage collections while measuring: " + collections);
+    }
+    
+    // Garbage collections so far, all collectors together
+    private static long gcCount() {
+        long total = 0;
+        for (java.lang.management.GarbageCollectorMXBean gc : java.lang.management.ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionCount());
+        }
+        return total;
+    }
+    
+    // Measure RL environment steps per second - one Env, then a VecEnv on every core, random actions
+    private static void runEnvBenchmark(int envCount) {
+        Env env = new Env(1);
+        long rng = 1;
+        long steps = 0;
+        long start = System.nanoTime();
+        while (System.nanoTime() - start < 2_000_000_000L) {
+            rng ^= rng << 13; rng ^= rng >>> 7; rng ^= rng << 17; // Xorshift - no allocation
+            env.step((int) ((rng >>> 33) % Env.ACTIONS));
+            if (env.done()) {
+                env.reset(rng);
+            }
+            steps++;
+        }
+        System.out.printf("1 env:     %,12.0f steps/s%n", steps * 1e9 / (System.nanoTime() - start));
+        
+        VecEnv vec = new VecEnv(envCount, 1);
+        steps = 0;
+        start = System.nanoTime();
+        while (System.nanoTime() - start < 3_000_000_000L) {
+            for (int i = 0; i < envCount; i++) {
+                rng ^= rng << 13; rng ^= rng >>> 7; rng ^= rng << 17;
+                vec.actions[i] = (int) ((rng >>> 33) % Env.ACTIONS);
+            }
+            vec.step();
+            steps += envCount;
+        }
+        System.out.printf("%d envs:  %,12.0f steps/s on %d threads%n", envCount,
+            steps * 1e9 / (System.nanoTime() - start), vec.pool.size());
+        vec.close();
+    }
+    
+    // Headless scaling test - runs stress waves of growing size for about a second each and prints ticks/sec.
+    // shotCount < 0 means "as many lasers as invaders", threads > 1 runs big waves on a worker pool
+    private static void runBenchmark(int shotCount, int threads) {
+        int[] sizes = {20, 100, 1_000, 10_000, 100_000};
+        System.out.println("invaders  projectiles     ticks/s      us/tick");
+        for (int size : sizes) {
+            int shots = shotCount < 0 ? size : shotCount;
+            SpaceInvaders game = new SpaceInvaders(false, 1); // Same seed every run
+            game.particles = new Particles(0); // Simulation only (--particle-bench times particles)
+            game.useThreads(threads);
+            game.startStress(size, shots);
+            for (int i = 0; i < 50; i++) { // Warm up the JIT
+                game.step(0);
+            }
+            long ticks = 0;
+            long start = System.nanoTime();
+            long elapsed;
+            do {
+                game.step(0);
+                ticks++;
+                elapsed = System.nanoTime() - start;
+            } while (elapsed < 1_000_000_000L || ticks < 20);
+            System.out.printf("%8d  %11d  %10.0f  %11.1f%n", size, shots, ticks * 1e9 / elapsed, elapsed / 1e3 / ticks);
+        }
+    }
+    
+    // Micro-benchmarks of the simulation hot paths, JMH style (a single-file game can't pull JMH in):
+    // every case is warmed up, then timed over several iterations, and each call starts from the same
+    // saved snapshot so the entity count and wave stay what the row says. Only the call itself is
+    // timed - restoring the snapshot is not. only names one benchmark to run, or null for all of them.
+    private static void runMicroBenchmarks(String only, int threads) {
+        String[] names = {"updateGame", "checkCollisions", "createInvaders", "move"};
+        java.util.List<java.util.function.Consumer<SpaceInvaders>> calls = java.util.Arrays.asList(
+            game -> game.updateGame(System.nanoTime()), // A whole tick, input included
+            SpaceInvaders::checkCollisions,
+            SpaceInvaders::createInvaders,
+            game -> game.world.move()); // Every invader and bullet update loop
+        int[] entityCounts = {20, 1_000, 10_000}; // Invaders, with as many lasers in flight
+        int[] waves = {1, 6}; // Before and after tough enemies and power shots
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+        System.out.println("Benchmark        entities  wave        ns/op     error    B/op");
+        for (int b = 0; b < names.length; b++) {
+            if (only != null && !names[b].equals(only)) continue;
+            for (int entities : entityCounts) {
+                for (int wave : waves) {
+                    SpaceInvaders game = new SpaceInvaders(false, 1); // Same seed every run
+                    game.particles = new Particles(0); // Simulation only
+                    game.useThreads(threads);
+                    game.wave = wave;
+                    game.startStress(entities, entities);
+                    for (int i = 0; i < 10; i++) { // Get the lasers flying
+                        game.step(0);
+                    }
+                    java.nio.ByteBuffer start = java.nio.ByteBuffer.allocate(game.snapshotSize());
+                    game.saveSnapshot(start);
+                    
+                    for (int i = 0; i < 3; i++) { // Warm up the JIT
+                        timeCalls(game, start, calls.get(b), threadBean);
+                    }
+                    double[] nanos = new double[5];
+                    double bytes = 0;
+                    for (int i = 0; i < nanos.length; i++) {
+                        double[] result = timeCalls(game, start, calls.get(b), threadBean);
+                        nanos[i] = result[0];
+                        bytes += result[1] / nanos.length;
+                    }
+                    double mean = 0, spread = 0;
+                    for (double n : nanos) mean += n / nanos.length;
+                    for (double n : nanos) spread += (n - mean) * (n - mean) / (nanos.length - 1);
+                    System.out.printf("%-15s  %8d  %4d  %11.1f  %8.1f  %6.0f%n", names[b], entities, wave, mean, Math.sqrt(spread), bytes);
+                }
+            }
+        }
+    }
+    
+    // One benchmark iteration - about 200 ms of calls, each from the start snapshot.
+    // Returns {ns per call, bytes allocated per call}
+    private static double[] timeCalls(SpaceInvaders game, java.nio.ByteBuffer start,
+            java.util.function.Consumer<SpaceInvaders> call, com.sun.management.ThreadMXBean threadBean) {
+        long calls = 0, nanos = 0, bytes = 0;
+        long end = System.nanoTime() + 200_000_000L;
+        do {
+            start.rewind();
+            game.loadSnapshot(start);
+            long allocatedBefore = threadBean.getCurrentThreadAllocatedBytes();
+            long callStart = System.nanoTime();
+            call.accept(game);
+            nanos += System.nanoTime() - callStart;
+            bytes += threadBean.getCurrentThreadAllocatedBytes() - allocatedBefore;
+            calls++;
+        } while (System.nanoTime() < end || calls < 10);
+        return new double[] {(double) nanos / calls, (double) bytes / calls};
+    }
+    
+    // Re-simulate a recorded game without drawing and check it ends in exactly the recorded state
+    private static void runReplay(String path) {
+        InputLog log;
+        try {
+            log = InputLog.load(path);
+        } catch (java.io.IOException e) {
+            System.err.println("Could not load replay: " + e.getMessage());
+            return;
+        }
+        SpaceInvaders game = new SpaceInvaders(false, log.seed); // No timer - we drive the ticks
+        game.particles = new Particles(0); // Nothing is drawn
+        if (log.stressInvaders > 0) {
+            game.startStress(log.stressInvaders, log.stressShots);
+        }
+        long start = System.nanoTime();
+        for (long t = 0; t < log.ticks; t++) {
+            game.step(log.next());
+        }
+        long elapsed = System.nanoTime() - start;
+        
+        double playedSeconds = log.ticks * TICK_MILLIS / 1000.0;
+        System.out.printf("Replayed %d ticks (%.1f s of play, %d byte log) in %.1f ms - %.0fx real time%n",
+            log.ticks, playedSeconds, log.sizeInBytes(), elapsed / 1e6, playedSeconds * 1e9 / Math.max(1, elapsed));
+        System.out.println("Score " + game.score + ", wave " + game.wave + ", lives " + game.lives);
+        System.out.println(game.stateHash() == log.expectedHash ? "Final state matches the recording"
+            : "MISMATCH - final state differs from the recording");
+    }
+    
+    // Dump the game's frame timings to a CSV file when the program exits (path may be null for no dump)
+    private static void writeStatsOnExit(SpaceInvaders game, String path) {
+        if (path == null) return;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                game.stats.writeCsv(path);
+            } catch (java.io.IOException e) {
+                System.err.println("Could not write frame stats: " + e.getMessage());
+            }
+        }));
     }
 }
\ No newline at end of file
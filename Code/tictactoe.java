@@ -1,15 +1,33 @@
 import java.awt.*; // For GUI components (Buttons, panels, frames, etc.)
 import java.awt.event.*; // For layout managers, colors, fonts, and other AWT classes
 import java.util.Random; // For event handling (mouse clicks, actions)
+import java.util.concurrent.*; // For the background thread the CPU thinks on
 import javax.swing.*; // For generating random numbers (CPU Moves)  
 
 // Main game class that extends JFrame (window)
 public class tictactoe extends JFrame {
-    private final JButton[][] buttons = new JButton[3][3]; // 2D array to store references to all 9 game board buttons
-    private char currentPlayer = 'X'; // Tracks whose turn it is - Starts with 'X'
+    // Board choices on the menu - rows, columns, marks in a row to win
+    private static final int[][] BOARD_SIZES = {{3, 3, 3}, {4, 4, 4}, {15, 15, 5}};
+    private static final String[] BOARD_NAMES = {"3 x 3, three in a row", "4 x 4, four in a row", "15 x 15, five in a row (Gomoku)"};
+    private static final long THINK_MILLIS = 1000; // CPU's time budget per move
+    private static final int SOLVE_CELLS = 16; // Boards up to this size are searched move by move to the end, bigger ones with MCTS
+
+    private JButton[][] buttons; // 2D array to store references to all game board buttons (rows x columns)
+    private Board board = new Board(3, 3, 3); // The real game state - the buttons only mirror it
     private boolean gameActive = true; // Game state - False when game ends (win/draw)
     private boolean vsCPU = false; // Mode flag - true for Player vs CPU, false for Player vs Player
-    private final Random random = new Random(); // Random number generator for CPU moves
+
+    // The CPU thinks on its own thread so the window keeps responding. Only that thread touches the engines
+    private final ExecutorService cpu = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "CPU player");
+        thread.setDaemon(true); // Don't keep the program alive
+        return thread;
+    });
+    private Future<?> thinking; // CPU search in progress, or null
+    private int game = 0; // Bumped whenever the board is cleared, so a late answer for an old game is dropped
+    private Negamax negamax; // CPU for boards small enough to search to the end (made for each new shape)
+    private Tablebase tablebase; // Instant perfect play instead, if a tablebase file was made for the board
+    private Mcts mcts; // CPU for boards too big to solve (made the first time one is played)
 
     // Colors for UI
     private final Color bgColor = new Color(240,240,240); // Light gray background
@@ -31,7 +49,9 @@ public class tictactoe extends JFrame {
 
     // Creates and displays the game mode selection screen
     private void showGameModeSelection() {
-        JPanel modePanel = new JPanel(new GridLayout(3, 1, 10, 10)); // Create panel with 3 rows , 1 column , and 10px gaps
+        stopThinking(); // Restarted in the middle of the CPU's turn
+        setSize(400, 500); // Menu size (a big board may have grown the window)
+        JPanel modePanel = new JPanel(new GridLayout(4, 1, 10, 10)); // Create panel with 4 rows , 1 column , and 10px gaps
         modePanel.setBorder(BorderFactory.createEmptyBorder(50, 50, 50, 50)); // Add a 50px padding around the panel
         modePanel.setBackground(bgColor); // Set background color
 
@@ -39,21 +59,32 @@ public class tictactoe extends JFrame {
         titleLabel.setFont(new Font("Arial", Font.BOLD, 24)); // Set font style and size
         titleLabel.setForeground(new Color(52, 73, 94)); // Set text color
 
+        JComboBox<String> sizeBox = new JComboBox<>(BOARD_NAMES); // Board size and how many in a row win
+        sizeBox.setFont(new Font("Arial", Font.PLAIN, 14));
+        for (int i = 0; i < BOARD_SIZES.length; i++) { // Keep the current size selected
+            if (BOARD_SIZES[i][0] == board.rows && BOARD_SIZES[i][1] == board.cols && BOARD_SIZES[i][2] == board.k) {
+                sizeBox.setSelectedIndex(i);
+            }
+        }
+
         JButton pvpButton = createStyledButton("Player vs Player"); // Create mode selection button
         JButton pvcButton = createStyledButton("Player vs CPU");
         
         pvpButton.addActionListener(e -> { // Add action listener - code that runs when buttons are clicked [Lambda starts]
             vsCPU = false; // Set to Player vs Player
+            startBoard(BOARD_SIZES[sizeBox.getSelectedIndex()]);
             initializeGame(); // Start Game
         }); // [Lambda Ends]
 
         pvcButton.addActionListener(e -> { // [Lambda starts]
             vsCPU = true; // Set to Player vs CPU
+            startBoard(BOARD_SIZES[sizeBox.getSelectedIndex()]);
             initializeGame();
         }); // [Lambda ends]
 
         // Add components to panel in order
         modePanel.add(titleLabel);
+        modePanel.add(sizeBox);
         modePanel.add(pvpButton);
         modePanel.add(pvcButton);
 
@@ -88,9 +119,23 @@ public class tictactoe extends JFrame {
         return button;
     }
 
+    // Switch to a board of the given {rows, columns, k} size (keeps the current board when it matches)
+    private void startBoard(int[] size) {
+        if (board.rows != size[0] || board.cols != size[1] || board.k != size[2]) {
+            board = new Board(size[0], size[1], size[2]);
+        }
+    }
+
     // Sets up the main game board and interface
     private void initializeGame() {
         getContentPane().removeAll(); // Clear previous content
+        stopThinking();
+        board.reset(); // New buttons start empty, so the model does too
+        gameActive = true;
+        buttons = new JButton[board.rows][board.cols];
+        int cellSize = Math.max(40, 120 - 6 * Math.max(board.rows, board.cols)); // Smaller cells on bigger boards
+        setSize(Math.max(400, board.cols * cellSize + 40), Math.max(500, board.rows * cellSize + 140));
+        setLocationRelativeTo(null); // Re-center after resizing
 
         // Main panel using border layout
         JPanel mainPanel = new JPanel(new BorderLayout());
@@ -115,16 +160,19 @@ public class tictactoe extends JFrame {
         topPanel.add(statusLabel, BorderLayout.CENTER);
         topPanel.add(restartButton, BorderLayout.EAST);
 
-        // Game board panel - 3x3 grid with 5px gaps
-        JPanel boardPanel = new JPanel(new GridLayout(3, 3, 5, 5));
+        // Game board panel - rows x columns grid with small gaps
+        int gap = board.cols > 5 ? 2 : 5;
+        JPanel boardPanel = new JPanel(new GridLayout(board.rows, board.cols, gap, gap));
         boardPanel.setBackground(new Color(189, 195, 199)); // Gray background
         boardPanel.setBorder(BorderFactory.createEmptyBorder(20, 20, 20, 20)); // Padding
 
-        // Create 3x3 grid of buttons for the game board
-        for (int row = 0; row < 3; row++) {
-            for (int col = 0; col < 3; col++) {
+        // Create grid of buttons for the game board
+        Font markFont = new Font("Arial", Font.BOLD, Math.max(16, 120 / Math.max(board.rows, board.cols))); // Large font for X/O, smaller on big boards
+        for (int row = 0; row < board.rows; row++) {
+            for (int col = 0; col < board.cols; col++) {
                 buttons[row][col] = new JButton(); // Create new button
-                buttons[row][col].setFont(new Font("Arial", Font.BOLD, 40)); // Large font for X/O
+                buttons[row][col].setFont(markFont);
+                buttons[row][col].setMargin(new Insets(0, 0, 0, 0)); // Let the mark use the whole cell
                 buttons[row][col].setBackground(buttonColor); // White background
                 buttons[row][col].setFocusPainted(false); // Remove focus border
                 buttons[row][col].setBorder(BorderFactory.createLineBorder(new Color(189, 195, 199), 2)); // Add gray border around button
@@ -135,11 +183,11 @@ public class tictactoe extends JFrame {
 
                 // Add click listener to each button
                 buttons[row][col].addActionListener(e -> { // [Lambda starts]
-                    if(gameActive && buttons[finalRow][finalCol].getText().isEmpty()) { // Check if game is active and button is empty
+                    if(gameActive && thinking == null && board.isEmpty(board.cell(finalRow, finalCol))) { // Check if game is active, not the CPU's turn, and cell is empty
                         makeMove(finalRow, finalCol, statusLabel); // Make player move
 
                         // If playing vs CPU and its CPU's turn, make CPU move
-                        if(vsCPU && gameActive && currentPlayer == 'O') {
+                        if(vsCPU && gameActive && board.toMove() == 'O') {
                             cpuMove(statusLabel);
                         }
                     }
@@ -149,13 +197,13 @@ public class tictactoe extends JFrame {
                 buttons[row][col].addMouseListener(new MouseAdapter() {
                     @Override
                     public void mouseEntered(MouseEvent e) {
-                        if (gameActive && buttons[finalRow][finalCol].getText().isEmpty()) { // Light gray background when hovering over empty button
+                        if (gameActive && board.isEmpty(board.cell(finalRow, finalCol))) { // Light gray background when hovering over empty button
                             buttons[finalRow][finalCol].setBackground(new Color(236, 240, 241));
                         }
                     }
                     @Override
                     public void mouseExited(MouseEvent e) { // Return to white when mouse leaves empty button
-                        if (gameActive && buttons[finalRow][finalCol].getText().isEmpty()) {
+                        if (gameActive && board.isEmpty(board.cell(finalRow, finalCol))) {
                             buttons[finalRow][finalCol].setBackground(buttonColor);
                         }
                     }
@@ -176,7 +224,9 @@ public class tictactoe extends JFrame {
 
     // Handles a player making a move
     private void makeMove(int row, int col, JLabel statusLabel) {
-        buttons[row][col].setText(String.valueOf(currentPlayer)); // Set button text to current player ( X or O )
+        char currentPlayer = board.toMove(); // X or O
+        board.play(board.cell(row, col)); // Update the model first
+        buttons[row][col].setText(String.valueOf(currentPlayer)); // Mirror it on the button
 
         // Set Color for each player
         if (currentPlayer == 'X') {
@@ -186,180 +236,135 @@ public class tictactoe extends JFrame {
         }
 
         // Check if game resulted in win or draw
-        if(checkWin()) {
+        if(board.hasWinner()) {
             gameActive = false; // Stop the game
             highlightWinningCells(); // Show winning Combination
             statusLabel.setText("Player " + currentPlayer + " wins."); // Update status
             showGameOverDialog("Player " + currentPlayer + " wins."); // Show win dialog
-        } else if (isBoardfull()) { // Check is board is full (draw)
+        } else if (board.isFull()) { // Check is board is full (draw)
             gameActive = false;
             statusLabel.setText("It's a draw.");
             showGameOverDialog("It's a draw.");
-        } else { // Game continues - switch to other player
-            currentPlayer = (currentPlayer == 'X') ? 'O' : 'X';
-            statusLabel.setText("Current Player: " + currentPlayer); // Update display
+        } else { // Game continues - the model has already switched to the other player
+            statusLabel.setText("Current Player: " + board.toMove()); // Update display
         }
     }
 
-    // Handles CPU making a move
+    // Handles CPU making a move - the search runs on the CPU thread with its own copy of the board, and
+    // the move comes back to the EDT when it is done. Clicks are ignored until then
     private void cpuMove(JLabel statusLabel) { 
-        // Simple AI* First attempts to win, else block player, else random move
-        int[] move = findBestMove();
-        // Small delay to make CPU move visible
-        Timer timer = new Timer(500, e -> { // [Lambda starts]
-            makeMove(move[0], move[1], statusLabel); // Make the CPU move
-        }); // [Lambda ends]
-        timer.setRepeats(false); // Only execute once
-        timer.start(); // Start the timer
+        Board position = new Board(board);
+        int thisGame = game;
+        long started = System.currentTimeMillis();
+        statusLabel.setText("CPU is thinking...");
+        thinking = cpu.submit(() -> {
+            int move = chooseMove(position, (depth, best, score) -> SwingUtilities.invokeLater(() -> { // Best move so far, after each finished depth
+                if (thisGame == game) statusLabel.setText("CPU is thinking... " + depth + " moves ahead, likes row " + (position.row(best) + 1) + ", column " + (position.col(best) + 1));
+            }));
+            SwingUtilities.invokeLater(() -> {
+                if (thisGame != game) return; // Restarted while the CPU was thinking
+                // Small delay to make CPU move visible - quick answers wait the rest of half a second
+                Timer timer = new Timer((int) Math.max(0, 500 - (System.currentTimeMillis() - started)), e -> { // [Lambda starts]
+                    if (thisGame != game) return;
+                    thinking = null;
+                    makeMove(board.row(move), board.col(move), statusLabel); // Make the CPU move
+                }); // [Lambda ends]
+                timer.setRepeats(false); // Only execute once
+                timer.start(); // Start the timer
+            });
+        });
+    }
+
+    // Runs on the CPU thread. On 3x3, perfect play looked up from a table solved at startup - the CPU never
+    // loses, and wins whenever the player slips. Up to 4x4 it looks moves up the same way if a
+    // tablebase has been made (--tablebase), and otherwise searches deeper and deeper until it has
+    // searched to the end of the game or used its time. Bigger boards are too big for that, so it
+    // searches them with MCTS on every core for its whole time
+    private int chooseMove(Board position, Negamax.Progress progress) {
+        if (MoveTable.covers(position)) {
+            return MoveTable.get().move(position);
+        }
+        long deadline = System.nanoTime() + THINK_MILLIS * 1_000_000L;
+        if (position.cells <= SOLVE_CELLS) {
+            if ((tablebase == null || !tablebase.fits(position)) && java.nio.file.Files.exists(Tablebase.fileFor(position))) {
+                try {
+                    tablebase = Tablebase.open(position, Tablebase.fileFor(position));
+                } catch (java.io.IOException e) {
+                    System.err.println("Could not open tablebase: " + e.getMessage());
+                }
+            }
+            if (tablebase != null && tablebase.fits(position)) {
+                return tablebase.move(position);
+            }
+            if (negamax == null || !negamax.fits(position)) {
+                negamax = new Negamax(position, 20);
+            }
+            return negamax.bestMove(position, deadline, progress);
+        }
+        if (mcts == null) {
+            mcts = new Mcts(Runtime.getRuntime().availableProcessors(), Mcts.DEFAULT_NODES);
+        }
+        return mcts.bestMove(position, THINK_MILLIS);
+    }
+
+    // Drop the CPU's turn if it is thinking - interrupting the search stops it, and the game counter
+    // makes sure an answer already on its way to the EDT is ignored
+    private void stopThinking() {
+        game++;
+        if (thinking != null) {
+            thinking.cancel(true);
+            thinking = null;
+        }
     }
 
-    // AI logic to determine CPU's move
-    private int[] findBestMove() {
+    // AI logic to determine CPU's move - works on the model only, so it runs headless and off the EDT
+    static int heuristicMove(Board board, Random random) {
+        int mine = board.side(), theirs = 1 - mine; // Side to move and its opponent
 
         // 1) Check if CPU can win
-        for (int i = 0; i < 3; i++) {
-            for(int j = 0; j < 3; j++) {
-                if(buttons[i][j].getText().isEmpty()) { // If cell is empty
-                    buttons[i][j].setText("O"); // Try placing O
-                    if (checkWin()) { // Check if this wins
-                        buttons[i][j].setText(""); // Undo test move
-                        return new int[]{i, j}; // Return winning move
-                    }
-                    buttons[i][j].setText(""); // Undo test move
-                }
+        for (int cell = 0; cell < board.cells; cell++) {
+            if (board.isEmpty(cell) && board.wouldWin(mine, cell)) { // If this empty cell completes a line
+                return cell; // Return winning move
             }
         }
 
         // 2) Block player's winning move
-        for (int i = 0; i < 3; i++) {
-            for (int j = 0; j < 3; j++) {
-                if(buttons[i][j].getText().isEmpty()) {
-                    buttons[i][j].setText("X"); // Test player move
-                    if (checkWin()) { // Check if player would win
-                        buttons[i][j].setText(""); // Undo test
-                        return new int[]{i, j}; // Return blocking move
-                    }
-                    buttons[i][j].setText(""); // Undo test
-                }
+        for (int cell = 0; cell < board.cells; cell++) {
+            if (board.isEmpty(cell) && board.wouldWin(theirs, cell)) { // If player would win here
+                return cell; // Return blocking move
             }
         }
 
         // 3) Take center if available (Best strategic position)
-        if (buttons[1][1].getText().isEmpty()) {
-            return new int[]{1, 1};
+        int center = board.cell(board.rows / 2, board.cols / 2);
+        if (board.isEmpty(center)) {
+            return center;
         }
 
         // 4) Take corners
-        int[][] corners = {{0, 0}, {0, 2}, {2, 0}, {2, 2}};
-        for (int[] corner : corners) {
-            if (buttons[corner[0]][corner[1]].getText().isEmpty()) {
+        for (int corner : board.corners()) {
+            if (board.isEmpty(corner)) {
                 return corner;
             }
         }
 
-        // 5) Random move (Last resort)
-        while(true) {
-            int row = random.nextInt(3); // Random row(0-2)
-            int col = random.nextInt(3); // Random column (0-2)
-            if(buttons[row][col].getText().isEmpty()) { // If empty
-                return new int[]{row, col}; // Return randodm move
+        // 5) Random move (Last resort) - pick the n-th free cell
+        int n = random.nextInt(board.cells - board.plies);
+        for (int cell = 0; cell < board.cells; cell++) {
+            if (board.isEmpty(cell) && n-- == 0) {
+                return cell; // Return random move
             }
         }
-    }
-
-    // Check if current player has won
-    private boolean checkWin() { // Checks all rows and columns for three in a row
-        for(int i = 0; i < 3; i++) {
-           
-            //Check Rows
-            if (!buttons[i][0].getText().isEmpty() && 
-            buttons[i][0].getText().equals(buttons[i][1].getText()) && // Match with middle
-            buttons[i][0].getText().equals(buttons[i][2].getText())) { // Match with right
-                return true;
-            }
-            
-            //Check Columns
-            if (!buttons[0][i].getText().isEmpty() && 
-            buttons[0][i].getText().equals(buttons[1][i].getText()) && 
-            buttons [0][i].getText().equals(buttons[2][i].getText())) {
-                return true;
-            }
-        }
-
-        // Check Diagonals
-        if (!buttons[0][0].getText().isEmpty() && // Checks top left and bottom right
-        buttons[0][0].getText().equals(buttons[1][1].getText()) && 
-        buttons[0][0].getText().equals(buttons[2][2].getText())) {
-            return true;
-        }
-        if (!buttons[0][2].getText().isEmpty() && // Checks top right and bottom left
-        buttons[0][2].getText().equals(buttons[1][1].getText()) && 
-        buttons[0][2].getText().equals(buttons[2][0].getText())) {
-            return true;
-        }
-
-        return false; // No win found
+        return -1; // Board is full - never asked for a move then
     }
 
     // Highlights the winning combination in green
     private void highlightWinningCells() {
-        
-        // Check rows for winning combo
-        for (int i = 0; i < 3; i++) {
-            if (!buttons[i][0].getText().isEmpty() && 
-            buttons[i][0].getText().equals(buttons[i][1].getText()) && 
-            buttons[i][0].getText().equals(buttons[i][2].getText())) {
-                buttons[i][0].setBackground(winColor); // Highlight winning row
-                buttons[i][1].setBackground(winColor);
-                buttons[i][2].setBackground(winColor);
-                return; // Exit after finding winning line
-            }
-        }
-
-        // Check columns
-        for (int i = 0; i < 3; i++) {
-            if (!buttons[0][i].getText().isEmpty() &&
-            buttons[0][i].getText().equals(buttons[1][i].getText()) &&
-            buttons[0][i].getText().equals(buttons[2][i].getText())) {
-                buttons[0][i].setBackground(winColor); // Highlight winning column
-                buttons[1][i].setBackground(winColor);
-                buttons[2][i].setBackground(winColor);
-                return;
-            }
-        }
-
-        // Check Diagonals - Top left to bottom right
-        if (!buttons[0][0].getText().isEmpty() && 
-        buttons[0][0].getText().equals(buttons[1][1].getText()) && 
-        buttons[0][0].getText().equals(buttons[2][2].getText())) {
-            buttons[0][0].setBackground(winColor); // Highlight winning diagonal
-            buttons[1][1].setBackground(winColor);
-            buttons[2][2].setBackground(winColor);
-            return;
-        }
-
-        // Check Diagonals - Top right to bottom left
-        if (!buttons[0][2].getText().isEmpty() && 
-        buttons[0][2].getText().equals(buttons[1][1].getText()) &&
-        buttons[0][2].getText().equals(buttons[2][0].getText())) {
-            buttons[0][2].setBackground(winColor); // Highlight winning diagonal
-            buttons[1][1].setBackground(winColor);
-            buttons[2][0].setBackground(winColor);
+        for (int cell : board.winningCells()) {
+            buttons[board.row(cell)][board.col(cell)].setBackground(winColor); // Highlight winning cell
         }
     }
 
-    // Checks if all cells are filled (draw condition)
-    private boolean isBoardfull() {
-        for (int i = 0; i < 3; i++) {
-            for (int j = 0; j < 3; j++) {
-                if (buttons[i][j].getText().isEmpty()) {
-                    return false; // Found empty cell - board not full
-                }
-            }
-        }
-        return true; // No empty cells found - board is full
-    }
-
     // Show game over dialog with options
     private void showGameOverDialog(String message) {
         Object[] options = {"Play again", " Main Menu", "Exit"}; // Define options
@@ -391,20 +396,1284 @@ public class tictactoe extends JFrame {
 
     // Resets the game to initial state
     private void resetGame() {
-        currentPlayer = 'X'; // Reset to X starting
+        stopThinking();
+        board.reset(); // Empty board, X starting
         gameActive = true; // Reactivate game
         
         // Clear all buttons
-        for (int i = 0; i < 3; i++) {
-            for (int j = 0; j < 3; j++) {
+        for (int i = 0; i < board.rows; i++) {
+            for (int j = 0; j < board.cols; j++) {
                 buttons[i][j].setText(""); // Clear text
                 buttons[i][j].setBackground(buttonColor); // Reset background color
             }
         }
     }
     
-    // Main method - Program entry point
+    // Game model with no Swing in it, for a rows x cols board won by k in a row (an m,n,k game -
+    // 3,3,3 is tic-tac-toe, 15,15,5 is Gomoku). Each player's marks are kept as bitsets per row,
+    // column, diagonal and anti-diagonal, so a move only looks at the four lines through it: ANDing
+    // a line with itself shifted finds k in a row in O(log k) steps, with no rescan of the board.
+    // Cells are numbered row * cols + col. X is side 0 and always moves first, O is side 1.
+    static class Board {
+        static final int MAX_SIDE = 64; // Rows and columns each fit in a long
+
+        final int rows, cols, k, cells; // Shape, marks in a row to win, rows * cols
+        private final long[][] rowBits, colBits, diagBits, antiBits; // [side][line] - bit c of row r, bit r of column c and of both diagonals
+        int plies = 0; // Marks on the board
+        private int winner = -1; // Side with k in a row, or -1
+        private int winningMove = -1; // The move that made it
+
+        Board(int rows, int cols, int k) {
+            if (rows < 1 || cols < 1 || rows > MAX_SIDE || cols > MAX_SIDE || k < 1) {
+                throw new IllegalArgumentException("Board must be 1 to " + MAX_SIDE + " on a side with k >= 1");
+            }
+            this.rows = rows;
+            this.cols = cols;
+            this.k = k;
+            cells = rows * cols;
+            rowBits = new long[2][rows];
+            colBits = new long[2][cols];
+            diagBits = new long[2][rows + cols - 1]; // Down-right diagonals, numbered r - c + cols - 1
+            antiBits = new long[2][rows + cols - 1]; // Down-left diagonals, numbered r + c
+        }
+
+        // Copy of another board, marks and all - for searches that play moves on their own board
+        Board(Board other) {
+            rows = other.rows;
+            cols = other.cols;
+            k = other.k;
+            cells = other.cells;
+            rowBits = new long[][] {other.rowBits[0].clone(), other.rowBits[1].clone()};
+            colBits = new long[][] {other.colBits[0].clone(), other.colBits[1].clone()};
+            diagBits = new long[][] {other.diagBits[0].clone(), other.diagBits[1].clone()};
+            antiBits = new long[][] {other.antiBits[0].clone(), other.antiBits[1].clone()};
+            plies = other.plies;
+            winner = other.winner;
+            winningMove = other.winningMove;
+        }
+
+        int cell(int row, int col) { return row * cols + col; } // Cell index of a row and column
+        int row(int cell) { return cell / cols; } // Row of a cell
+        int col(int cell) { return cell % cols; } // Column of a cell
+
+        int side() { return plies & 1; } // Side to move - X whenever both have played equally often
+        char toMove() { return plies % 2 == 0 ? 'X' : 'O'; }
+
+        // Put the side to move's mark on an empty cell
+        void play(int cell) {
+            int side = side();
+            if (winner < 0 && wouldWin(side, cell)) {
+                winner = side;
+                winningMove = cell;
+            }
+            flip(side, cell);
+            plies++;
+        }
+
+        // Take a mark back off a cell (either player's)
+        void undo(int cell) {
+            flip(owner(cell), cell);
+            plies--;
+            if (cell == winningMove) {
+                winner = -1;
+                winningMove = -1;
+            }
+        }
+
+        void reset() {
+            for (long[][] lines : new long[][][] {rowBits, colBits, diagBits, antiBits}) {
+                java.util.Arrays.fill(lines[0], 0);
+                java.util.Arrays.fill(lines[1], 0);
+            }
+            plies = 0;
+            winner = -1;
+            winningMove = -1;
+        }
+
+        // Toggle one side's mark on a cell in all four line sets
+        private void flip(int side, int cell) {
+            int r = row(cell), c = col(cell);
+            rowBits[side][r] ^= 1L << c;
+            colBits[side][c] ^= 1L << r;
+            diagBits[side][r - c + cols - 1] ^= 1L << r;
+            antiBits[side][r + c] ^= 1L << r;
+        }
+
+        // Side with a mark on a cell, or -1 when it's empty
+        int owner(int cell) {
+            int r = row(cell), c = col(cell);
+            return (rowBits[0][r] >>> c & 1) != 0 ? 0 : (rowBits[1][r] >>> c & 1) != 0 ? 1 : -1;
+        }
+
+        boolean isEmpty(int cell) { return owner(cell) < 0; }
+        boolean isFull() { return plies == cells; }
+        boolean hasWinner() { return winner >= 0; }
+
+        // Mark on a cell - 'X', 'O' or ' ' when empty
+        char at(int cell) {
+            int owner = owner(cell);
+            return owner == 0 ? 'X' : owner == 1 ? 'O' : ' ';
+        }
+
+        // The four corner cells
+        int[] corners() { return new int[] {0, cols - 1, cells - cols, cells - 1}; }
+
+        // Whether a mark for side on cell would give k in a row through it (the cell is
+        // treated as taken either way) - the four lines through the cell, nothing else
+        boolean wouldWin(int side, int cell) {
+            int r = row(cell), c = col(cell);
+            return runThrough(rowBits[side][r] | 1L << c, c)
+                || runThrough(colBits[side][c] | 1L << r, r)
+                || runThrough(diagBits[side][r - c + cols - 1] | 1L << r, r)
+                || runThrough(antiBits[side][r + c] | 1L << r, r);
+        }
+
+        // Whether bits hold k set bits in a row covering bit p
+        private boolean runThrough(long bits, int p) {
+            for (int have = 1; have < k; ) { // Afterwards bit i is set where a run of k starts
+                int step = Math.min(have, k - have); // Doubling - O(log k) shifts
+                bits &= bits >>> step;
+                have += step;
+            }
+            int first = Math.max(0, p - k + 1); // Runs through p start between here and p
+            return (bits >>> first & -1L >>> 63 - (p - first)) != 0;
+        }
+
+        // Cells of the winning row (at least k, in a line through the winning move), or none
+        int[] winningCells() {
+            if (winner < 0) return new int[0];
+            int r = row(winningMove), c = col(winningMove);
+            int[][] directions = {{0, 1}, {1, 0}, {1, 1}, {1, -1}};
+            for (int[] d : directions) {
+                int back = 0, ahead = 0; // Own marks either side of the winning move
+                while (ownedBy(winner, r - (back + 1) * d[0], c - (back + 1) * d[1])) back++;
+                while (ownedBy(winner, r + (ahead + 1) * d[0], c + (ahead + 1) * d[1])) ahead++;
+                if (back + ahead + 1 >= k) {
+                    int[] line = new int[back + ahead + 1];
+                    for (int i = 0; i < line.length; i++) {
+                        line[i] = cell(r + (i - back) * d[0], c + (i - back) * d[1]);
+                    }
+                    return line;
+                }
+            }
+            return new int[0]; // Unreachable - winner is only set with a line in place
+        }
+
+        private boolean ownedBy(int side, int r, int c) {
+            return r >= 0 && r < rows && c >= 0 && c < cols && owner(cell(r, c)) == side;
+        }
+
+        // Bit per cell of one side's marks (boards of up to 64 cells)
+        long mask(int side) {
+            long mask = 0;
+            for (int r = 0; r < rows; r++) {
+                mask |= rowBits[side][r] << r * cols;
+            }
+            return mask;
+        }
+
+        // [symmetry][cell] - where each cell goes under every rotation and reflection the board
+        // has: 8 for a square (4 turns, then the same mirrored), 4 otherwise (mirrors and a half turn).
+        // Symmetry 0 leaves every cell alone
+        int[][] symmetries() {
+            int[][] maps = new int[rows == cols ? 8 : 4][cells];
+            for (int s = 0; s < maps.length; s++) {
+                for (int cell = 0; cell < cells; cell++) {
+                    int r = row(cell), c = col(cell);
+                    if (rows == cols) {
+                        if (s >= 4) c = cols - 1 - c;
+                        for (int turn = 0; turn < s % 4; turn++) { // Quarter turn clockwise
+                            int rotated = c;
+                            c = rows - 1 - r;
+                            r = rotated;
+                        }
+                    } else {
+                        if ((s & 1) != 0) c = cols - 1 - c;
+                        if ((s & 2) != 0) r = rows - 1 - r;
+                    }
+                    maps[s][cell] = cell(r, c);
+                }
+            }
+            return maps;
+        }
+
+        // How many k-long windows on the board contain each cell - cells in more possible lines are
+        // usually better moves (on 3x3: center 4, corners 3, edges 2)
+        int[] lineCounts() {
+            int[] counts = new int[cells];
+            int[][] directions = {{0, 1}, {1, 0}, {1, 1}, {1, -1}};
+            for (int[] d : directions) {
+                for (int start = 0; start < cells; start++) {
+                    int endRow = row(start) + (k - 1) * d[0], endCol = col(start) + (k - 1) * d[1];
+                    if (endRow >= rows || endCol < 0 || endCol >= cols) continue; // Window runs off the board
+                    for (int i = 0; i < k; i++) {
+                        counts[cell(row(start) + i * d[0], col(start) + i * d[1])]++;
+                    }
+                }
+            }
+            return counts;
+        }
+    }
+
+    // Perfect-play search - negamax with alpha-beta pruning over the bitboard model, for one board
+    // shape. Positions are cached in a transposition table keyed by Zobrist hash, and the key is the
+    // smallest of the position's hashes in every orientation the board has, so rotated and mirrored
+    // copies share one entry (its best move is stored in that canonical orientation and turned back
+    // when read). Scores are from the side to move's point of view: win - plies for a win, so faster
+    // wins rank higher, 0 for a draw and plies - win for a loss. Solves 3x3 in well under a
+    // millisecond; past 4x4 the tree is too big to search to the end.
+    // A timed search deepens one move at a time: a search stopped at a depth scores the positions
+    // there 0 (not decided yet), and table entries remember how deep they were searched, so a
+    // shallow score is never trusted by a deeper search - but its best move is still tried first.
+    static class Negamax {
+        private static final byte EXACT = 0, LOWER = 1, UPPER = 2; // What a stored score is
+
+        // Told about each depth a timed search finishes - depth, best move and its score
+        interface Progress {
+            void finished(int depth, int move, int score);
+        }
+
+        final int win; // Score of winning with no marks on the board (cells + 1)
+        private final int rows, cols, k; // Shape it was made for
+        private final long[][] zobrist; // [side][cell] - random key per player per cell
+        private final long emptyHash; // Hash of the empty board - not 0, so 0 can mean an unused slot
+        private final int[][] symmetries, inverse; // Board.symmetries() and the maps that undo them
+        private final int[] order; // Cells in the most possible lines first - best moves first cut most
+        private final int mask; // Table size - 1
+        private final long[] keys; // Canonical hash stored in each slot (0 = empty)
+        private final short[] scores, moves; // Score and best move (canonical orientation) per slot
+        private final short[] depths; // Moves searched below each slot's position
+        private final byte[] bounds; // What kind of bound each score is
+        private final long[] hash; // Current position's hash in each orientation
+        private boolean timed, stopped; // Timed search, and whether it ran out of time (or was interrupted)
+        private long deadline; // System.nanoTime() a timed search stops at
+        private int rootScore; // Score of the move the last root search picked
+        long nodes = 0; // Positions searched, for reporting
+
+        // Engine for boards shaped like shape, with a 2^tableBits slot table - a slot per reachable
+        // position (5,478 on 3x3) needs only 2^13
+        Negamax(Board shape, int tableBits) {
+            win = shape.cells + 1;
+            rows = shape.rows;
+            cols = shape.cols;
+            k = shape.k;
+            Random random = new Random(0x5EED); // Same keys every run
+            zobrist = new long[2][shape.cells];
+            for (long[] side : zobrist) {
+                for (int cell = 0; cell < shape.cells; cell++) {
+                    side[cell] = random.nextLong();
+                }
+            }
+            emptyHash = random.nextLong() | 1;
+            symmetries = shape.symmetries();
+            inverse = new int[symmetries.length][shape.cells];
+            for (int s = 0; s < symmetries.length; s++) {
+                for (int cell = 0; cell < shape.cells; cell++) {
+                    inverse[s][symmetries[s][cell]] = cell;
+                }
+            }
+            int[] lines = shape.lineCounts();
+            order = java.util.stream.IntStream.range(0, shape.cells).boxed()
+                .sorted((a, b) -> lines[b] - lines[a]) // Stable, so ties stay in cell order
+                .mapToInt(Integer::intValue).toArray();
+            hash = new long[symmetries.length];
+            mask = (1 << tableBits) - 1;
+            keys = new long[mask + 1];
+            scores = new short[mask + 1];
+            moves = new short[mask + 1];
+            depths = new short[mask + 1];
+            bounds = new byte[mask + 1];
+        }
+
+        // Whether this engine was made for boards shaped like this one
+        boolean fits(Board board) {
+            return board.rows == rows && board.cols == cols && board.k == k;
+        }
+
+        // Best cell for the side to move (the board is left as it was), or -1 if the game is over
+        int bestMove(Board board) {
+            timed = stopped = false;
+            return root(board, board.cells - board.plies);
+        }
+
+        // Best cell found by searching 1, 2, 3... moves ahead until the deadline (a System.nanoTime()
+        // value), the end of the game, or the thread being interrupted. A search cut off part way is
+        // thrown away, so the answer is the best move of the deepest search that finished
+        int bestMove(Board board, long deadline, Progress progress) {
+            if (board.hasWinner() || board.isFull()) return -1;
+            this.deadline = deadline;
+            timed = true;
+            stopped = false;
+            int best = -1;
+            for (int depth = 1; depth <= board.cells - board.plies; depth++) {
+                int move = root(board, depth);
+                if (stopped) break;
+                best = move;
+                progress.finished(depth, move, rootScore);
+                if (rootScore != 0) break; // Only the end of the game scores anything else - a forced result can't change
+            }
+            if (best >= 0) return best;
+            for (int cell : order) { // Not even one move ahead in time - any empty cell
+                if (board.isEmpty(cell)) return cell;
+            }
+            return -1;
+        }
+
+        // Value of the position for the side to move under perfect play from both sides
+        int score(Board board) {
+            rehash(board);
+            timed = stopped = false;
+            return search(board, -win - 1, win + 1, board.cells - board.plies);
+        }
+
+        // Best move searching depth moves ahead (counting this one)
+        private int root(Board board, int depth) {
+            if (board.hasWinner() || board.isFull()) return -1;
+            rehash(board);
+            int best = -1, bestScore = -win - 1;
+            for (int cell : order) {
+                if (!board.isEmpty(cell)) continue;
+                play(board, cell);
+                int score = -search(board, -win - 1, -bestScore, depth - 1); // Only a strictly better move matters
+                undo(board, cell);
+                if (stopped) return -1;
+                if (score > bestScore) {
+                    bestScore = score;
+                    best = cell;
+                }
+            }
+            rootScore = bestScore;
+            return best;
+        }
+
+        private int search(Board board, int alpha, int beta, int depth) {
+            nodes++;
+            if (timed && (nodes & 1023) == 0 && (System.nanoTime() - deadline > 0 || Thread.currentThread().isInterrupted())) {
+                stopped = true;
+            }
+            if (stopped) return 0; // Unwinding - nothing from here on is stored
+            if (board.hasWinner()) return board.plies - win; // The side that just moved won
+            if (board.isFull()) return 0; // Draw
+            if (depth == 0) return 0; // Not decided this far ahead
+
+            int symmetry = 0; // Orientation with the smallest hash - the canonical one
+            for (int s = 1; s < hash.length; s++) {
+                if (hash[s] < hash[symmetry]) symmetry = s;
+            }
+            long key = hash[symmetry];
+            int slot = (int) (key ^ key >>> 32) & mask;
+            int hashMove = -1;
+            if (keys[slot] == key) {
+                if (depths[slot] >= depth) {
+                    int stored = scores[slot];
+                    if (bounds[slot] == EXACT) return stored;
+                    if (bounds[slot] == LOWER) alpha = Math.max(alpha, stored);
+                    else beta = Math.min(beta, stored);
+                    if (alpha >= beta) return stored;
+                }
+                hashMove = inverse[symmetry][moves[slot]]; // Back into this position's orientation
+            }
+
+            int originalAlpha = alpha;
+            int best = -win - 1, bestMove = -1;
+            for (int i = -1; i < order.length; i++) { // Move from the table first, then the usual order
+                int cell = i < 0 ? hashMove : order[i];
+                if (cell < 0 || !board.isEmpty(cell) || (i >= 0 && cell == hashMove)) continue;
+                play(board, cell);
+                int score = -search(board, -beta, -alpha, depth - 1);
+                undo(board, cell);
+                if (stopped) return 0;
+                if (score > best) {
+                    best = score;
+                    bestMove = cell;
+                    if (score > alpha) alpha = score;
+                    if (alpha >= beta) break; // Opponent won't allow this line
+                }
+            }
+
+            keys[slot] = key; // Always replace - the newest entry is the one most likely needed again
+            scores[slot] = (short) best;
+            depths[slot] = (short) depth;
+            bounds[slot] = best <= originalAlpha ? UPPER : best >= beta ? LOWER : EXACT;
+            moves[slot] = (short) symmetries[symmetry][bestMove];
+            return best;
+        }
+
+        // Hash the position from scratch in every orientation
+        private void rehash(Board board) {
+            java.util.Arrays.fill(hash, emptyHash);
+            for (int cell = 0; cell < board.cells; cell++) {
+                int owner = board.owner(cell);
+                if (owner >= 0) toggle(owner, cell);
+            }
+        }
+
+        private void play(Board board, int cell) {
+            toggle(board.side(), cell);
+            board.play(cell);
+        }
+
+        private void undo(Board board, int cell) {
+            board.undo(cell);
+            toggle(board.side(), cell); // Side to move again is the one that played it
+        }
+
+        // Add or remove a player's mark on a cell in every orientation's hash
+        private void toggle(int side, int cell) {
+            for (int s = 0; s < hash.length; s++) {
+                hash[s] ^= zobrist[side][symmetries[s][cell]];
+            }
+        }
+    }
+
+    // Monte Carlo Tree Search for boards too big to search to the end. Every thread runs its own
+    // playouts into one shared tree (tree parallelism): the tree lives in an arena of primitive
+    // arrays, node statistics are atomic counters, and a thread adds a visit to every node on its
+    // way down before its playout finishes (a virtual loss), so threads running at the same time
+    // spread out over different branches instead of piling into the same one. Only one thread
+    // expands a node - the others play out from it until its children are published.
+    // Values are stored in half points (win 2, draw 1) for the player who moved into the node.
+    static class Mcts {
+        static final int DEFAULT_NODES = 1 << 21; // Arena size - about 40 MB
+        private static final double EXPLORATION = 1.4; // UCT constant - higher tries more moves
+        private static final int NEAR = 2; // Moves considered lie within this many cells of a mark
+        private static final int NEW = 0, EXPANDING = 1, EXPANDED = 2, LEAF = 3; // Node states (LEAF = arena was full)
+
+        final int threads;
+        private final int capacity;
+        private final int[] move, firstChild, childCount; // Written once by the expanding thread, before state says EXPANDED
+        private final java.util.concurrent.atomic.AtomicIntegerArray visits, value, state;
+        private final java.util.concurrent.atomic.AtomicInteger used = new java.util.concurrent.atomic.AtomicInteger();
+        private final java.util.concurrent.ExecutorService pool; // threads - 1 helpers (the caller searches too)
+        private volatile boolean stop; // Set when the caller is interrupted, so the helpers stop too
+        long playouts = 0; // Playouts in the last search, for reporting
+
+        Mcts(int threads, int capacity) {
+            this.threads = Math.max(1, threads);
+            this.capacity = capacity;
+            move = new int[capacity];
+            firstChild = new int[capacity];
+            childCount = new int[capacity];
+            visits = new java.util.concurrent.atomic.AtomicIntegerArray(capacity);
+            value = new java.util.concurrent.atomic.AtomicIntegerArray(capacity);
+            state = new java.util.concurrent.atomic.AtomicIntegerArray(capacity);
+            pool = this.threads == 1 ? null : java.util.concurrent.Executors.newFixedThreadPool(this.threads - 1, task -> {
+                Thread thread = new Thread(task, "MCTS worker");
+                thread.setDaemon(true); // Don't keep the program alive
+                return thread;
+            });
+        }
+
+        // Best cell for the side to move after searching for the given time, or until the thread is
+        // interrupted (the board is left as it was)
+        int bestMove(Board board, long millis) {
+            if (board.hasWinner() || board.isFull()) return -1;
+            int mine = board.side();
+            for (int cell = 0; cell < board.cells; cell++) { // Winning now needs no search
+                if (board.isEmpty(cell) && board.wouldWin(mine, cell)) return cell;
+            }
+            for (int cell = 0; cell < board.cells; cell++) { // Neither does the only block - random playouts are slow to see it
+                if (board.isEmpty(cell) && board.wouldWin(1 - mine, cell)) return cell;
+            }
+
+            used.set(1); // Node 0 is the root - everything else from the last search is dropped
+            stop = false;
+            reset(0, -1);
+            long deadline = System.nanoTime() + millis * 1_000_000L;
+            java.util.List<java.util.concurrent.Future<Long>> helpers = new java.util.ArrayList<>();
+            for (int t = 1; t < threads; t++) {
+                long seed = System.nanoTime() * 31 + t;
+                helpers.add(pool.submit(() -> search(board, deadline, seed)));
+            }
+            playouts = search(board, deadline, System.nanoTime());
+            boolean interrupted = Thread.interrupted(); // Helpers must finish before the arena is reused, so wait even if cancelled
+            for (java.util.concurrent.Future<Long> helper : helpers) {
+                while (true) {
+                    try {
+                        playouts += helper.get();
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    } catch (java.util.concurrent.ExecutionException e) {
+                        throw new IllegalStateException("MCTS worker failed", e);
+                    }
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt(); // Pass the cancel on to the caller
+
+            if (state.get(0) != EXPANDED) return heuristicMove(board, new Random()); // No time to search at all
+            int best = -1;
+            for (int c = firstChild[0]; c < firstChild[0] + childCount[0]; c++) { // Most visited is the most trusted
+                if (best < 0 || visits.get(c) > visits.get(best)) best = c;
+            }
+            return move[best];
+        }
+
+        // One thread's share of the search - playouts until the deadline on a private copy of the board
+        private long search(Board root, long deadline, long seed) {
+            Board board = new Board(root);
+            int[] path = new int[board.cells + 1]; // Nodes from the root down
+            int[] played = new int[board.cells]; // Moves to take back afterwards
+            int[] empty = new int[board.cells]; // Scratch list for the random playout
+            int rootSide = board.side();
+            long random = seed | 1;
+            long count = 0;
+            while (!stop && System.nanoTime() < deadline) {
+                if (Thread.currentThread().isInterrupted()) stop = true; // Only the caller's thread gets interrupted
+                for (int batch = 0; batch < 8; batch++, count++) {
+                    // Selection - follow the best child, counting each node's visit right away (virtual loss)
+                    int node = 0, depth = 0, moves = 0;
+                    path[depth++] = 0;
+                    visits.incrementAndGet(0);
+                    while (!board.hasWinner() && !board.isFull()) {
+                        int nodeState = state.get(node);
+                        if (nodeState == NEW && state.compareAndSet(node, NEW, EXPANDING)) {
+                            nodeState = expand(node, board);
+                        }
+                        if (nodeState != EXPANDED) break; // Leaf, or another thread is expanding it - play out from here
+                        node = select(node);
+                        int before = visits.getAndIncrement(node);
+                        board.play(move[node]);
+                        played[moves++] = move[node];
+                        path[depth++] = node;
+                        if (before == 0) break; // First visit - play out from the new node
+                    }
+
+                    // Playout - random moves to the end of the game
+                    int n = 0;
+                    for (int cell = 0; cell < board.cells; cell++) {
+                        if (board.isEmpty(cell)) empty[n++] = cell;
+                    }
+                    while (!board.hasWinner() && n > 0) {
+                        random ^= random << 13; random ^= random >>> 7; random ^= random << 17; // Xorshift
+                        int pick = (int) ((random >>> 33) % n);
+                        int cell = empty[pick];
+                        empty[pick] = empty[--n];
+                        board.play(cell);
+                        played[moves++] = cell;
+                    }
+
+                    // Backpropagation - half points for whoever moved into each node
+                    int winner = board.hasWinner() ? (board.plies - 1) & 1 : -1; // The last mover won
+                    for (int i = 1; i < depth; i++) {
+                        int mover = (rootSide + i - 1) & 1;
+                        value.addAndGet(path[i], winner == mover ? 2 : winner < 0 ? 1 : 0);
+                    }
+                    while (moves > 0) {
+                        board.undo(played[--moves]);
+                    }
+                }
+            }
+            return count;
+        }
+
+        // Give a node one child per candidate move - empty cells near a mark, or the middle of an
+        // empty board. Returns the node's new state
+        private int expand(int node, Board board) {
+            int count = 0;
+            for (int cell = 0; cell < board.cells; cell++) {
+                if (candidate(board, cell)) count++;
+            }
+            int start = used.getAndAdd(count);
+            if (start + count > capacity) { // Arena full - this node stays a leaf
+                state.set(node, LEAF);
+                return LEAF;
+            }
+            int child = start;
+            for (int cell = 0; cell < board.cells; cell++) {
+                if (candidate(board, cell)) {
+                    reset(child++, cell);
+                }
+            }
+            firstChild[node] = start;
+            childCount[node] = count;
+            state.set(node, EXPANDED); // Publishes the children to the other threads
+            return EXPANDED;
+        }
+
+        private static boolean candidate(Board board, int cell) {
+            if (!board.isEmpty(cell)) return false;
+            int r = board.row(cell), c = board.col(cell);
+            if (board.plies == 0) return r == board.rows / 2 && c == board.cols / 2; // First move - the middle
+            for (int nr = Math.max(0, r - NEAR); nr <= Math.min(board.rows - 1, r + NEAR); nr++) {
+                for (int nc = Math.max(0, c - NEAR); nc <= Math.min(board.cols - 1, c + NEAR); nc++) {
+                    if (!board.isEmpty(board.cell(nr, nc))) return true;
+                }
+            }
+            return false;
+        }
+
+        // Child with the best UCT score - unvisited children first
+        private int select(int node) {
+            double logVisits = Math.log(Math.max(1, visits.get(node)));
+            int best = -1;
+            double bestScore = Double.NEGATIVE_INFINITY;
+            for (int c = firstChild[node]; c < firstChild[node] + childCount[node]; c++) {
+                int n = visits.get(c);
+                if (n == 0) return c;
+                double score = value.get(c) / (2.0 * n) + EXPLORATION * Math.sqrt(logVisits / n);
+                if (score > bestScore) {
+                    bestScore = score;
+                    best = c;
+                }
+            }
+            return best;
+        }
+
+        // Fresh node for a move
+        private void reset(int node, int cell) {
+            move[node] = cell;
+            childCount[node] = 0;
+            visits.set(node, 0);
+            value.set(node, 0);
+            state.set(node, NEW);
+        }
+    }
+
+    // Perfect play as one array lookup. Every reachable position is solved once by Negamax and
+    // packed into a byte: the best move in the low 4 bits, the outcome for the side to move above
+    // them. The index is the board read as a base-3 number (a digit per cell: 0 empty, 1 X, 2 O),
+    // put together from two 512-entry tables so it takes no loop. That covers all 3^9 boards in
+    // 19,683 bytes - small enough that folding symmetric positions together (8 transforms per
+    // lookup) would cost more time than the memory is worth.
+    static class MoveTable {
+        static final int WIN = 1, DRAW = 2, LOSS = 3; // Outcomes for the side to move (0 = unreachable position)
+        static final int SIZE = 19_683; // 3^9 boards
+        private static final int[] X_DIGITS = new int[1 << 9]; // Base-3 value of X's cells (digit 1)
+        private static final int[] O_DIGITS = new int[1 << 9]; // Base-3 value of O's cells (digit 2)
+        private static MoveTable instance; // Built the first time anyone asks
+
+        static {
+            for (int cells = 0; cells < X_DIGITS.length; cells++) {
+                int value = 0;
+                for (int cell = 8; cell >= 0; cell--) {
+                    value = value * 3 + (cells >> cell & 1);
+                }
+                X_DIGITS[cells] = value;
+                O_DIGITS[cells] = value * 2;
+            }
+        }
+
+        private final byte[] entries = new byte[SIZE];
+
+        // The shared table - solving it takes about 50 ms, once
+        static synchronized MoveTable get() {
+            if (instance == null) {
+                instance = new MoveTable();
+            }
+            return instance;
+        }
+
+        private MoveTable() {
+            solve(new Board(3, 3, 3), new Negamax(new Board(3, 3, 3), 13));
+        }
+
+        // Solve this position and everything reachable from it that isn't solved yet
+        private void solve(Board board, Negamax engine) {
+            int index = index(board);
+            if (entries[index] != 0) return; // Reached by another move order
+            if (board.hasWinner()) { // Game over - lost for the side to move
+                entries[index] = (byte) (LOSS << 4 | 0xF);
+                return;
+            }
+            if (board.isFull()) {
+                entries[index] = (byte) (DRAW << 4 | 0xF);
+                return;
+            }
+            int score = engine.score(board);
+            int outcome = score > 0 ? WIN : score < 0 ? LOSS : DRAW;
+            entries[index] = (byte) (outcome << 4 | engine.bestMove(board));
+            for (int cell = 0; cell < board.cells; cell++) {
+                if (board.isEmpty(cell)) {
+                    board.play(cell);
+                    solve(board, engine);
+                    board.undo(cell);
+                }
+            }
+        }
+
+        static boolean covers(Board board) { return board.rows == 3 && board.cols == 3 && board.k == 3; } // Only plain tic-tac-toe
+
+        static int index(Board board) { return X_DIGITS[(int) board.mask(0)] + O_DIGITS[(int) board.mask(1)]; }
+
+        // Best cell for the side to move, or -1 when the game is over
+        int move(Board board) {
+            int move = entries[index(board)] & 0xF;
+            return move == 0xF ? -1 : move;
+        }
+
+        // WIN, DRAW or LOSS for the side to move under perfect play
+        int outcome(Board board) {
+            return entries[index(board)] >> 4 & 0x3;
+        }
+    }
+
+    // Retrograde-analysis tablebase for boards of up to 16 cells (4x4 with four in a row is the one the
+    // game offers). Every position still being played is solved backwards from the end: positions with
+    // one empty cell first, then two, and so on, each from its children one move on, which are all
+    // known by then - one layer at a time, with each layer shared out over threads.
+    // Only one orientation of each position is kept (the one with the smallest base-3 index, a
+    // digit per cell as in MoveTable), and those are numbered 0, 1, 2... by a perfect hash: a
+    // bitmap over all 3^cells indexes with a bit per kept position, plus a count of the bits
+    // before every 512, so a position's number is a count plus at most eight popcounts. Outcomes
+    // take 2 bits each. The file holds the bitmap, the counts and the outcomes, and is memory-mapped
+    // rather than read in. 4x4x4 Qubic is out of reach for any table like this: a bitmap over its
+    // 3^64 indexes alone would be about 4 x 10^17 terabytes.
+    static class Tablebase {
+        static final int MAX_CELLS = 16; // 3^16 indexes is 43 million bitmap bits, about 5 MB
+        static final int WIN = 1, DRAW = 2, LOSS = 3; // Outcomes for the side to move, as in MoveTable
+        private static final int MAGIC = 0x54544254; // "TTBT" at the start of the file
+        private static final int HEADER = 7 * 4; // Magic, rows, cols, k, positions, bitmap words, counts
+
+        final int rows, cols, k, cells;
+        int positions; // Positions kept (one per set of symmetric ones, game not over)
+        private final int full; // Mask with every cell
+        private final int[] digits; // Base-3 value of a mask with a 1 in each of its cells (O's are twice that)
+        private final int[][] lowMap, highMap; // [symmetry][byte] - where the cells of a mask's low and high byte go
+        private final boolean[] wins; // [mask] - whether a player with these cells has k in a row
+        private java.nio.LongBuffer words; // Bitmap of kept indexes
+        private java.nio.IntBuffer counts; // Set bits before each 8 words
+        private java.nio.ByteBuffer packed; // Four outcomes a byte
+        private byte[] solving; // Outcome per position while the table is being made
+
+        private Tablebase(Board shape) {
+            if (shape.cells > MAX_CELLS) {
+                throw new IllegalArgumentException("Tablebases only go up to " + MAX_CELLS + " cells");
+            }
+            rows = shape.rows;
+            cols = shape.cols;
+            k = shape.k;
+            cells = shape.cells;
+            full = (1 << cells) - 1;
+            digits = new int[1 << cells];
+            for (int mask = 1; mask <= full; mask++) {
+                int cell = Integer.numberOfTrailingZeros(mask);
+                digits[mask] = digits[mask & mask - 1] + (int) Math.pow(3, cell);
+            }
+            int[][] symmetries = shape.symmetries();
+            lowMap = new int[symmetries.length][256];
+            highMap = new int[symmetries.length][256];
+            for (int s = 0; s < symmetries.length; s++) {
+                for (int bits = 0; bits < 256; bits++) {
+                    for (int bit = 0; bit < 8; bit++) {
+                        if ((bits >> bit & 1) == 0) continue;
+                        if (bit < cells) lowMap[s][bits] |= 1 << symmetries[s][bit];
+                        if (bit + 8 < cells) highMap[s][bits] |= 1 << symmetries[s][bit + 8];
+                    }
+                }
+            }
+            java.util.List<Integer> lines = new java.util.ArrayList<>(); // Every k-long window, as a mask
+            int[][] directions = {{0, 1}, {1, 0}, {1, 1}, {1, -1}};
+            for (int cell = 0; cell < cells; cell++) {
+                for (int[] d : directions) {
+                    int line = 0, r = shape.row(cell), c = shape.col(cell), n = 0;
+                    for (; n < k && r >= 0 && r < rows && c >= 0 && c < cols; n++, r += d[0], c += d[1]) {
+                        line |= 1 << shape.cell(r, c);
+                    }
+                    if (n == k) lines.add(line);
+                }
+            }
+            wins = new boolean[1 << cells];
+            for (int mask = 0; mask <= full; mask++) {
+                for (int line : lines) {
+                    if ((mask & line) == line) {
+                        wins[mask] = true;
+                        break;
+                    }
+                }
+            }
+        }
+
+        boolean fits(Board board) { return board.rows == rows && board.cols == cols && board.k == k; } // Made for boards shaped like this one
+
+        // File the tablebase for boards shaped like this one lives in
+        static java.nio.file.Path fileFor(Board shape) {
+            return java.nio.file.Paths.get("tictactoe-" + shape.rows + "x" + shape.cols + "x" + shape.k + ".tablebase");
+        }
+
+        // Map a tablebase made earlier
+        static Tablebase open(Board shape, java.nio.file.Path file) throws java.io.IOException {
+            Tablebase table = new Tablebase(shape);
+            try (java.nio.channels.FileChannel channel = java.nio.channels.FileChannel.open(file, java.nio.file.StandardOpenOption.READ)) {
+                java.nio.MappedByteBuffer map = channel.map(java.nio.channels.FileChannel.MapMode.READ_ONLY, 0, channel.size()); // Stays mapped after the channel closes
+                if (map.getInt(0) != MAGIC || map.getInt(4) != shape.rows || map.getInt(8) != shape.cols || map.getInt(12) != shape.k) {
+                    throw new java.io.IOException(file + " is not a tablebase for " + shape.rows + " x " + shape.cols + ", " + shape.k + " in a row");
+                }
+                table.positions = map.getInt(16);
+                int wordCount = map.getInt(20), countCount = map.getInt(24);
+                table.words = slice(map, HEADER, wordCount * 8L).asLongBuffer();
+                table.counts = slice(map, HEADER + wordCount * 8L, countCount * 4L).asIntBuffer();
+                table.packed = slice(map, HEADER + wordCount * 8L + countCount * 4L, (table.positions + 3) / 4);
+            }
+            return table;
+        }
+
+        private static java.nio.ByteBuffer slice(java.nio.ByteBuffer buffer, long offset, long length) {
+            java.nio.ByteBuffer view = buffer.duplicate();
+            view.position((int) offset).limit((int) (offset + length));
+            return view.slice();
+        }
+
+        // Solve every position on threads threads, write the table to file and map it
+        static Tablebase generate(Board shape, java.nio.file.Path file, int threads) throws java.io.IOException {
+            Tablebase table = new Tablebase(shape);
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            try {
+                table.solveAll(pool, threads);
+            } finally {
+                pool.shutdown();
+            }
+            table.write(file);
+            return open(shape, file);
+        }
+
+        private void solveAll(ExecutorService pool, int threads) {
+            // Which indexes to keep: legal counts, nobody has won, not full, and the smallest orientation
+            int size = (int) Math.pow(3, cells);
+            java.util.concurrent.atomic.AtomicLongArray found = new java.util.concurrent.atomic.AtomicLongArray((size + 63) / 64);
+            inParallel(pool, threads, full + 1, x -> {
+                if (wins[x]) return;
+                int xCount = Integer.bitCount(x), free = full & ~x;
+                for (int o = free; ; o = o - 1 & free) {
+                    int oCount = Integer.bitCount(o);
+                    if ((oCount == xCount || oCount == xCount - 1) && !wins[o] && xCount + oCount < cells) {
+                        int index = digits[x] + 2 * digits[o];
+                        if (canonical(x, o) == index) {
+                            found.getAndAccumulate(index >>> 6, 1L << index, (a, b) -> a | b);
+                        }
+                    }
+                    if (o == 0) break;
+                }
+            });
+            long[] bitmap = new long[found.length()];
+            int[] blockCounts = new int[(bitmap.length + 7) / 8];
+            for (int w = 0; w < bitmap.length; w++) {
+                if (w % 8 == 0) blockCounts[w / 8] = positions;
+                bitmap[w] = found.get(w);
+                positions += Long.bitCount(bitmap[w]);
+            }
+            words = java.nio.LongBuffer.wrap(bitmap);
+            counts = java.nio.IntBuffer.wrap(blockCounts);
+
+            // Kept positions grouped by marks on the board, packed as X's mask above O's
+            int[] position = new int[positions];
+            int[] layerStart = new int[cells + 1];
+            int n = 0;
+            for (int w = 0; w < bitmap.length; w++) {
+                for (long bits = bitmap[w]; bits != 0; bits &= bits - 1) {
+                    int index = w * 64 + Long.numberOfTrailingZeros(bits), x = 0, o = 0;
+                    for (int cell = 0; index > 0; cell++, index /= 3) {
+                        if (index % 3 == 1) x |= 1 << cell;
+                        else if (index % 3 == 2) o |= 1 << cell;
+                    }
+                    position[n++] = x << 16 | o;
+                    layerStart[Integer.bitCount(x) + Integer.bitCount(o) + 1]++;
+                }
+            }
+            for (int layer = 1; layer <= cells; layer++) {
+                layerStart[layer] += layerStart[layer - 1];
+            }
+            int[] byLayer = new int[positions]; // Position numbers, fewest marks first
+            int[] fill = layerStart.clone();
+            for (int p = 0; p < positions; p++) {
+                int packedPosition = position[p];
+                byLayer[fill[Integer.bitCount(packedPosition >>> 16) + Integer.bitCount(packedPosition & 0xFFFF)]++] = p;
+            }
+
+            // Retrograde pass - the layer with the most marks first, so every child is solved before its parent
+            solving = new byte[positions];
+            for (int layer = cells - 1; layer >= 0; layer--) {
+                int from = layerStart[layer];
+                inParallel(pool, threads, layerStart[layer + 1] - from, i -> {
+                    int p = byLayer[from + i];
+                    solving[p] = (byte) (choose(position[p] >>> 16, position[p] & 0xFFFF) & 3); // Each thread writes its own bytes
+                });
+            }
+        }
+
+        // Runs body for 0 to count - 1 on the pool's threads, a chunk at a time; returns when all are done
+        private static void inParallel(ExecutorService pool, int threads, int count, java.util.function.IntConsumer body) {
+            int chunk = Math.max(1, Math.min(4096, count / (threads * 8) + 1));
+            java.util.concurrent.atomic.AtomicInteger next = new java.util.concurrent.atomic.AtomicInteger();
+            java.util.List<Callable<Void>> workers = new java.util.ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                workers.add(() -> {
+                    for (int start = next.getAndAdd(chunk); start < count; start = next.getAndAdd(chunk)) {
+                        for (int i = start; i < Math.min(count, start + chunk); i++) {
+                            body.accept(i);
+                        }
+                    }
+                    return null;
+                });
+            }
+            try {
+                for (Future<Void> worker : pool.invokeAll(workers)) {
+                    worker.get();
+                }
+            } catch (InterruptedException | ExecutionException e) {
+                throw new IllegalStateException("Tablebase generation failed", e);
+            }
+        }
+
+        private void write(java.nio.file.Path file) throws java.io.IOException {
+            int wordCount = words.capacity(), countCount = counts.capacity();
+            java.nio.ByteBuffer out = java.nio.ByteBuffer.allocate(HEADER + wordCount * 8 + countCount * 4 + (positions + 3) / 4);
+            out.putInt(MAGIC).putInt(rows).putInt(cols).putInt(k).putInt(positions).putInt(wordCount).putInt(countCount);
+            for (int w = 0; w < wordCount; w++) {
+                out.putLong(words.get(w));
+            }
+            for (int c = 0; c < countCount; c++) {
+                out.putInt(counts.get(c));
+            }
+            for (int p = 0; p < positions; p += 4) {
+                int four = 0;
+                for (int i = 0; i < 4 && p + i < positions; i++) {
+                    four |= solving[p + i] << 2 * i;
+                }
+                out.put((byte) four);
+            }
+            out.flip();
+            try (java.nio.channels.FileChannel channel = java.nio.channels.FileChannel.open(file, java.nio.file.StandardOpenOption.CREATE,
+                    java.nio.file.StandardOpenOption.WRITE, java.nio.file.StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (out.hasRemaining()) {
+                    channel.write(out);
+                }
+            }
+        }
+
+        // Smallest base-3 index of a position over every orientation
+        private int canonical(int x, int o) {
+            int best = Integer.MAX_VALUE;
+            for (int s = 0; s < lowMap.length; s++) {
+                int index = digits[lowMap[s][x & 255] | highMap[s][x >>> 8]] + 2 * digits[lowMap[s][o & 255] | highMap[s][o >>> 8]];
+                if (index < best) best = index;
+            }
+            return best;
+        }
+
+        // Outcome stored for a position that is still being played
+        private int outcome(int x, int o) {
+            int index = canonical(x, o), word = index >>> 6;
+            int number = counts.get(word >>> 3);
+            for (int w = word & ~7; w < word; w++) {
+                number += Long.bitCount(words.get(w));
+            }
+            number += Long.bitCount(words.get(word) & (1L << index) - 1);
+            return solving != null ? solving[number] : packed.get(number >>> 2) >> 2 * (number & 3) & 3;
+        }
+
+        // Best cell for the side to move and its outcome, as cell << 2 | outcome - a win now, else a move
+        // leaving the opponent lost, else a draw
+        private int choose(int x, int o) {
+            boolean xToMove = Integer.bitCount(x) == Integer.bitCount(o);
+            int mine = xToMove ? x : o, free = full & ~(x | o);
+            int draw = -1, loss = -1;
+            for (int rest = free; rest != 0; rest &= rest - 1) {
+                int cell = Integer.numberOfTrailingZeros(rest), after = mine | 1 << cell;
+                if (wins[after]) return cell << 2 | WIN;
+                int result = (x | o | 1 << cell) == full ? DRAW : xToMove ? outcome(after, o) : outcome(x, after); // For the opponent
+                if (result == LOSS) return cell << 2 | WIN;
+                if (result == DRAW && draw < 0) draw = cell;
+                if (loss < 0) loss = cell;
+            }
+            return draw >= 0 ? draw << 2 | DRAW : loss << 2 | LOSS;
+        }
+
+        // Best cell for the side to move, or -1 when the game is over
+        int move(Board board) {
+            if (board.hasWinner() || board.isFull()) return -1;
+            return choose((int) board.mask(0), (int) board.mask(1)) >>> 2;
+        }
+
+        // WIN, DRAW or LOSS for the side to move under perfect play (the game must not be over)
+        int outcome(Board board) {
+            return outcome((int) board.mask(0), (int) board.mask(1));
+        }
+    }
+
+    // Computer players the tournament knows
+    private static final String[] PLAYERS = {"heuristic", "minimax", "mcts", "table"};
+
+    // A computer player - each tournament thread makes its own, since the searches keep state between moves
+    interface Player {
+        int move(Board board);
+    }
+
+    // Player by name for boards shaped like shape, thinking for at most millis a move, or null if it
+    // can't play them (the table only knows 3x3, and boards a tablebase file has been made for)
+    private static Player newPlayer(String name, Board shape, long millis, Random random) {
+        switch (name) {
+            case "heuristic":
+                return board -> heuristicMove(board, random);
+            case "minimax":
+                Negamax negamax = new Negamax(shape, shape.cells <= 9 ? 13 : 20);
+                return board -> negamax.bestMove(board, System.nanoTime() + millis * 1_000_000L, (depth, move, score) -> { });
+            case "mcts":
+                Mcts mcts = new Mcts(1, 1 << 16); // Games run in parallel, so one thread each
+                return board -> mcts.bestMove(board, millis);
+            case "table":
+                if (MoveTable.covers(shape)) {
+                    MoveTable table = MoveTable.get();
+                    return table::move;
+                }
+                if (shape.cells > Tablebase.MAX_CELLS || !java.nio.file.Files.exists(Tablebase.fileFor(shape))) return null;
+                try {
+                    Tablebase tablebase = Tablebase.open(shape, Tablebase.fileFor(shape));
+                    return tablebase::move;
+                } catch (java.io.IOException e) {
+                    System.err.println("Could not open tablebase: " + e.getMessage());
+                    return null;
+                }
+            default:
+                throw new IllegalArgumentException("Unknown player " + name + " - choose from " + String.join(", ", PLAYERS));
+        }
+    }
+
+    // Headless round robin - no windows or dialogs. Every pair of players meets games times, in pairs of
+    // games that start from the same random opening moves with each player taking X once. Games are
+    // spread over threads that each make their own players. Prints the win/draw/loss matrix, Elo
+    // ratings fitted to every result, time per move and games per second
+    private static void runTournament(int[] size, String[] names, int games, int opening, long millis, int threads, long seed) {
+        Board shape = new Board(size[0], size[1], size[2]);
+        java.util.List<String> playing = new java.util.ArrayList<>();
+        for (String name : names) {
+            if (newPlayer(name, shape, millis, new Random()) != null) playing.add(name);
+            else System.out.println("Skipping " + name + " - it can't play " + size[0] + " x " + size[1]);
+        }
+        int n = playing.size();
+        int[][] pairings = new int[n * (n - 1) / 2][];
+        for (int i = 0, p = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                pairings[p++] = new int[] {i, j};
+            }
+        }
+        int gamePairs = (games + 1) / 2;
+        long[][][] results = new long[n][n][3]; // [row][column] - row player's wins, draws, losses
+        long[] moveNanos = new long[n], moveCount = new long[n];
+        System.out.printf("Tournament: %d x %d, %d in a row - %d games a pairing, %d random opening moves, %d ms a move at most, %d threads%n",
+            size[0], size[1], size[2], gamePairs * 2, opening, millis, threads);
+
+        java.util.concurrent.atomic.AtomicInteger next = new java.util.concurrent.atomic.AtomicInteger();
+        java.util.List<Callable<Void>> workers = new java.util.ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            long threadSeed = seed * 31 + t;
+            workers.add(() -> {
+                Random random = new Random(threadSeed);
+                Player[] players = new Player[n];
+                for (int i = 0; i < n; i++) {
+                    players[i] = newPlayer(playing.get(i), shape, millis, random);
+                }
+                long[][][] myResults = new long[n][n][3]; // Merged at the end, so the threads never share a counter
+                long[] myNanos = new long[n], myMoves = new long[n];
+                Board board = new Board(shape);
+                int[] openingMoves = new int[opening];
+                for (int task = next.getAndIncrement(); task < pairings.length * gamePairs; task = next.getAndIncrement()) {
+                    int[] pairing = pairings[task / gamePairs];
+                    Random openingRandom = new Random(seed ^ (task % gamePairs) * 0x9E3779B97F4A7C15L); // Same openings for every pairing
+                    board.reset();
+                    int plies = 0;
+                    while (plies < opening && !board.hasWinner() && !board.isFull()) {
+                        openingMoves[plies] = randomCell(board, openingRandom);
+                        board.play(openingMoves[plies++]);
+                    }
+                    for (int first = 0; first < 2; first++) { // Each player takes X once
+                        int x = pairing[first], o = pairing[1 - first];
+                        board.reset();
+                        for (int i = 0; i < plies; i++) {
+                            board.play(openingMoves[i]);
+                        }
+                        while (!board.hasWinner() && !board.isFull()) {
+                            int mover = board.side() == 0 ? x : o;
+                            long start = System.nanoTime();
+                            int move = players[mover].move(board);
+                            myNanos[mover] += System.nanoTime() - start;
+                            myMoves[mover]++;
+                            board.play(move);
+                        }
+                        int outcome = !board.hasWinner() ? 1 : board.side() == 1 ? 0 : 2; // For X - the side that moved last won
+                        myResults[x][o][outcome]++;
+                        myResults[o][x][2 - outcome]++;
+                    }
+                }
+                synchronized (results) {
+                    for (int i = 0; i < n; i++) {
+                        moveNanos[i] += myNanos[i];
+                        moveCount[i] += myMoves[i];
+                        for (int j = 0; j < n; j++) {
+                            for (int r = 0; r < 3; r++) {
+                                results[i][j][r] += myResults[i][j][r];
+                            }
+                        }
+                    }
+                }
+                return null;
+            });
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long started = System.nanoTime();
+        try {
+            for (Future<Void> worker : pool.invokeAll(workers)) {
+                worker.get();
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IllegalStateException("Tournament failed", e);
+        } finally {
+            pool.shutdown();
+        }
+        double seconds = (System.nanoTime() - started) / 1e9;
+
+        System.out.println("Wins/draws/losses of the row player against the column player");
+        String[][] cells = new String[n][n];
+        int width = 12;
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                cells[i][j] = i == j ? "-" : results[i][j][0] + "/" + results[i][j][1] + "/" + results[i][j][2];
+                width = Math.max(width, cells[i][j].length() + 2);
+            }
+        }
+        System.out.printf("%-10s", "");
+        for (String name : playing) {
+            System.out.printf("%" + width + "s", name);
+        }
+        System.out.println();
+        for (int i = 0; i < n; i++) {
+            System.out.printf("%-10s", playing.get(i));
+            for (int j = 0; j < n; j++) {
+                System.out.printf("%" + width + "s", cells[i][j]);
+            }
+            System.out.println();
+        }
+        double[] elo = eloRatings(results);
+        Integer[] ranking = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            ranking[i] = i;
+        }
+        java.util.Arrays.sort(ranking, (a, b) -> Double.compare(elo[b], elo[a]));
+        System.out.println("Player         Elo    us/move");
+        for (int i : ranking) {
+            System.out.printf("%-10s  %+6d  %9.2f%n", playing.get(i), Math.round(elo[i]), moveCount[i] == 0 ? 0 : moveNanos[i] / 1e3 / moveCount[i]);
+        }
+        long played = (long) pairings.length * gamePairs * 2;
+        System.out.printf("%d games in %.2f s - %.0f games/s%n", played, seconds, played / seconds);
+    }
+
+    // An empty cell picked at random - for openings, which should be anything at all
+    private static int randomCell(Board board, Random random) {
+        int n = random.nextInt(board.cells - board.plies);
+        for (int cell = 0; cell < board.cells; cell++) {
+            if (board.isEmpty(cell) && n-- == 0) return cell;
+        }
+        return -1;
+    }
+
+    // Elo ratings that best explain the results: a Bradley-Terry model fitted by minorization-
+    // maximization, with a draw counted as half a win. One made-up draw per pairing keeps the rating
+    // of a player that never lost finite. Ratings average 0
+    private static double[] eloRatings(long[][][] results) {
+        int n = results.length;
+        double[] strength = new double[n];
+        java.util.Arrays.fill(strength, 1);
+        for (int iteration = 0; iteration < 10_000; iteration++) {
+            double change = 0;
+            for (int i = 0; i < n; i++) {
+                double score = 0, expected = 0;
+                for (int j = 0; j < n; j++) {
+                    if (j == i) continue;
+                    long[] r = results[i][j];
+                    score += r[0] + (r[1] + 1) / 2.0;
+                    expected += (r[0] + r[1] + r[2] + 1) / (strength[i] + strength[j]);
+                }
+                double updated = score / expected;
+                change = Math.max(change, Math.abs(Math.log(updated / strength[i])));
+                strength[i] = updated;
+            }
+            if (change < 1e-9) break;
+        }
+        double[] elo = new double[n];
+        double mean = 0;
+        for (int i = 0; i < n; i++) {
+            elo[i] = 400 * Math.log10(strength[i]);
+            mean += elo[i] / n;
+        }
+        for (int i = 0; i < n; i++) {
+            elo[i] -= mean;
+        }
+        return elo;
+    }
+
+    // Value following a command line option, or null if the option isn't there
+    private static String optionValue(String[] args, String name) {
+        for (int i = 0; i + 1 < args.length; i++) {
+            if (args[i].equals(name)) {
+                return args[i + 1];
+            }
+        }
+        return null;
+    }
+
+    // Make the tablebase file for a board of up to 16 cells and check a sample of it against Negamax
+    private static void runTablebase(int[] size, int threads) {
+        Board shape = new Board(size[0], size[1], size[2]);
+        java.nio.file.Path file = Tablebase.fileFor(shape);
+        try {
+            long started = System.nanoTime();
+            Tablebase table = Tablebase.generate(shape, file, threads);
+            System.out.printf("%d x %d, %d in a row: %d positions in %.2f s on %d threads - %s, %d bytes%n",
+                size[0], size[1], size[2], table.positions, (System.nanoTime() - started) / 1e9, threads, file, java.nio.file.Files.size(file));
+            Random random = new Random(1);
+            Negamax negamax = new Negamax(shape, 20);
+            int checked = 0, wrong = 0;
+            long lookupNanos = 0;
+            for (int game = 0; game < 200; game++) { // Random positions, all the way from the empty board
+                Board board = new Board(shape);
+                int moves = random.nextInt(shape.cells);
+                for (int i = 0; i < moves && !board.hasWinner() && !board.isFull(); i++) {
+                    board.play(randomCell(board, random));
+                }
+                if (board.hasWinner() || board.isFull()) continue;
+                long start = System.nanoTime();
+                int outcome = table.outcome(board);
+                lookupNanos += System.nanoTime() - start;
+                int score = negamax.score(board);
+                checked++;
+                if (outcome != (score > 0 ? Tablebase.WIN : score < 0 ? Tablebase.LOSS : Tablebase.DRAW)) wrong++;
+            }
+            System.out.printf("Checked %d positions against Negamax: %d wrong, %.1f us a lookup%n", checked, wrong, lookupNanos / 1e3 / checked);
+        } catch (java.io.IOException e) {
+            System.err.println("Could not write " + file + ": " + e.getMessage());
+        }
+    }
+
+    // Main method - Program entry point. --tournament runs computer players against each other with no window:
+    // --board 4x4x4 (rows x columns x in a row), --players heuristic,table, --games, --opening (random moves
+    // to start each game from), --millis (time a move for the searching players), --threads and --seed.
+    // --tablebase 4x4x4 makes the tablebase file for that board (on --threads threads), which the CPU and
+    // the tournament's table player then use
     public static void main(String[] args) {
+        String tablebaseText = optionValue(args, "--tablebase");
+        if (tablebaseText != null) {
+            String threadsText = optionValue(args, "--threads");
+            runTablebase(java.util.Arrays.stream(tablebaseText.split("x")).mapToInt(Integer::parseInt).toArray(),
+                threadsText != null ? Integer.parseInt(threadsText) : Runtime.getRuntime().availableProcessors());
+            return;
+        }
+        if (java.util.Arrays.asList(args).contains("--tournament")) {
+            String boardText = optionValue(args, "--board");
+            String playersText = optionValue(args, "--players");
+            String gamesText = optionValue(args, "--games");
+            String openingText = optionValue(args, "--opening");
+            String millisText = optionValue(args, "--millis");
+            String threadsText = optionValue(args, "--threads");
+            String seedText = optionValue(args, "--seed");
+            int[] size = boardText != null ? java.util.Arrays.stream(boardText.split("x")).mapToInt(Integer::parseInt).toArray() : new int[] {3, 3, 3};
+            runTournament(size, playersText != null ? playersText.split(",") : PLAYERS,
+                gamesText != null ? Integer.parseInt(gamesText) : 1000,
+                openingText != null ? Integer.parseInt(openingText) : 0,
+                millisText != null ? Long.parseLong(millisText) : 2,
+                threadsText != null ? Integer.parseInt(threadsText) : Runtime.getRuntime().availableProcessors(),
+                seedText != null ? Long.parseLong(seedText) : System.nanoTime());
+            return;
+        }
         SwingUtilities.invokeLater(() -> { // Use SwingUtilities to ensure thread-safe GUI operations
             try {
                 //Set cross-platform look and feel for consistent appearance